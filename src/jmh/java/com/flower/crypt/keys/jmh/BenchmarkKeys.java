@@ -0,0 +1,85 @@
+package com.flower.crypt.keys.jmh;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+
+/** Freshly generated self-signed RSA key material for the benchmarks, as objects and as PEM. */
+public final class BenchmarkKeys {
+    public static final int RSA_KEY_SIZE = 2048;
+
+    final X509Certificate certificate;
+    final PrivateKey privateKey;
+    final String certificatePem;
+    final String privateKeyPem;
+
+    BenchmarkKeys(X509Certificate certificate, PrivateKey privateKey) throws Exception {
+        this.certificate = certificate;
+        this.privateKey = privateKey;
+        this.certificatePem = pem("CERTIFICATE", certificate.getEncoded());
+        this.privateKeyPem = pem("PRIVATE KEY", privateKey.getEncoded());
+    }
+
+    public static BenchmarkKeys generate(String commonName) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(RSA_KEY_SIZE);
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X500Name name = new X500Name("CN=" + commonName);
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(name,
+                new BigInteger(64, new SecureRandom()), Date.from(now.minus(Duration.ofDays(1))),
+                Date.from(now.plus(Duration.ofDays(365))), name, keyPair.getPublic());
+        ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate());
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+        return new BenchmarkKeys(certificate, keyPair.getPrivate());
+    }
+
+    static String pem(String type, byte[] der) {
+        return "-----BEGIN " + type + "-----\n"
+                + Base64.getMimeEncoder(64, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(der)
+                + "\n-----END " + type + "-----\n";
+    }
+
+    public X509Certificate certificate() {
+        return certificate;
+    }
+
+    public PrivateKey privateKey() {
+        return privateKey;
+    }
+
+    public String certificatePem() {
+        return certificatePem;
+    }
+
+    public String privateKeyPem() {
+        return privateKeyPem;
+    }
+
+    /** Write the PEM files into {@code directory}, as {@code cert.pem} and {@code key.pem}. */
+    public File[] writeTo(File directory) throws IOException {
+        File certificateFile = new File(directory, "cert.pem");
+        File keyFile = new File(directory, "key.pem");
+        Files.writeString(certificateFile.toPath(), certificatePem, StandardCharsets.US_ASCII);
+        Files.writeString(keyFile.toPath(), privateKeyPem, StandardCharsets.US_ASCII);
+        return new File[] { certificateFile, keyFile };
+    }
+}
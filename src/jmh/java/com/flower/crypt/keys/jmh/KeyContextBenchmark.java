@@ -0,0 +1,70 @@
+package com.flower.crypt.keys.jmh;
+
+import com.flower.crypt.keys.Aes256KeyContext;
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.RsaKeyContext;
+import com.flower.crypt.keys.engine.AesRawKeyEngine;
+import com.flower.crypt.keys.engine.AesRawKeySpec;
+import com.flower.crypt.keys.engine.RsaRawKeyEngine;
+import com.flower.crypt.keys.engine.RsaRawKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key context creation: the bare {@code of(...)} factories, and {@code getKeyContext()} of the raw engines,
+ * which for AES includes hex decoding and for RSA reuses the parsed keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class KeyContextBenchmark {
+    BenchmarkKeys keys;
+    byte[] aesKey;
+    byte[] aesIv;
+    RsaRawKeyEngine rsaEngine;
+    AesRawKeyEngine aesEngine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keys = BenchmarkKeys.generate("context");
+        SecureRandom random = new SecureRandom();
+        aesKey = new byte[32];
+        aesIv = new byte[16];
+        random.nextBytes(aesKey);
+        random.nextBytes(aesIv);
+
+        rsaEngine = new RsaRawKeyEngine(RsaRawKeySpec.of(keys.certificatePem(), keys.privateKeyPem()));
+        rsaEngine.getKeyContext();
+        aesEngine = new AesRawKeyEngine(AesRawKeySpec.of(HexFormat.of().formatHex(aesKey), HexFormat.of().formatHex(aesIv)));
+    }
+
+    @Benchmark
+    public RsaKeyContext rsaKeyContextOf() {
+        return RsaKeyContext.of(keys.certificate().getPublicKey(), keys.privateKey(), keys.certificate());
+    }
+
+    @Benchmark
+    public Aes256KeyContext aes256KeyContextOf() {
+        return Aes256KeyContext.of(aesKey, aesIv);
+    }
+
+    @Benchmark
+    public KeyContext rsaRawEngineKeyContext() {
+        return rsaEngine.getKeyContext();
+    }
+
+    @Benchmark
+    public KeyContext aesRawEngineKeyContext() {
+        return aesEngine.getKeyContext();
+    }
+}
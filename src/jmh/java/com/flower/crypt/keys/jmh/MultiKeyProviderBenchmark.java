@@ -0,0 +1,115 @@
+package com.flower.crypt.keys.jmh;
+
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.RsaKeyProvider;
+import com.flower.crypt.keys.engine.RsaRawKeyEngine;
+import com.flower.crypt.keys.engine.RsaRawKeySpec;
+import com.flower.crypt.keys.forms.MultiKeyProvider;
+import com.flower.crypt.keys.forms.TabKeyProvider;
+import javafx.application.Platform;
+import javafx.scene.layout.AnchorPane;
+import javafx.stage.Stage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.net.ssl.KeyManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls through {@link MultiKeyProvider} to the selected tab's provider, from benchmark threads rather than the
+ * FX thread - the way TLS code uses it. The child providers are headless engines behind a blank tab, so what's
+ * measured is the dispatch, not the key material.
+ * <p>
+ * Needs a JavaFX toolkit, i.e. a display (or a headless Monocle/Glass setup) on the benchmark machine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class MultiKeyProviderBenchmark {
+    static final int TAB_COUNT = 4;
+
+    MultiKeyProvider multiKeyProvider;
+
+    static final class EngineTab implements TabKeyProvider, RsaKeyProvider {
+        final String tabName;
+        final RsaRawKeyEngine engine;
+
+        EngineTab(String tabName, RsaRawKeyEngine engine) {
+            this.tabName = tabName;
+            this.engine = engine;
+        }
+
+        @Override
+        public String tabName() {
+            return tabName;
+        }
+
+        @Override
+        public AnchorPane tabContent() {
+            return new AnchorPane();
+        }
+
+        @Override
+        public void initPreferences() {
+        }
+
+        @Override
+        public KeyContext getKeyContext() {
+            return engine.getKeyContext();
+        }
+
+        @Override
+        public KeyManagerFactory getKeyManagerFactory() {
+            return engine.getKeyManagerFactory();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkKeys keys = BenchmarkKeys.generate("multi");
+        List<TabKeyProvider> tabs = new ArrayList<>();
+        for (int i = 0; i < TAB_COUNT; i++) {
+            RsaRawKeyEngine engine = new RsaRawKeyEngine(RsaRawKeySpec.of(keys.certificatePem(), keys.privateKeyPem()));
+            engine.getKeyManagerFactory();
+            tabs.add(new EngineTab("Tab " + i, engine));
+        }
+
+        startPlatform();
+        CompletableFuture<MultiKeyProvider> created = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                created.complete(new MultiKeyProvider(new Stage(), "Multi", tabs));
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            }
+        });
+        multiKeyProvider = created.get(30, TimeUnit.SECONDS);
+    }
+
+    static synchronized void startPlatform() {
+        try {
+            Platform.startup(() -> {});
+        } catch (IllegalStateException alreadyStarted) {
+            // Toolkit was started by an earlier trial in this JVM.
+        }
+    }
+
+    @Benchmark
+    public KeyContext getKeyContext() {
+        return multiKeyProvider.getKeyContext();
+    }
+
+    @Benchmark
+    public KeyManagerFactory getKeyManagerFactory() {
+        return multiKeyProvider.getKeyManagerFactory();
+    }
+}
@@ -0,0 +1,60 @@
+package com.flower.crypt.keys.jmh;
+
+import com.flower.crypt.keys.engine.RsaFileKeyEngine;
+import com.flower.crypt.keys.engine.RsaFileKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.net.ssl.KeyManagerFactory;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/** Loading the PEM pair behind the "File" tab: read and parse both files, then get a factory for them. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class RsaFileLoadBenchmark {
+    File directory;
+    RsaFileKeySpec spec;
+    RsaFileKeyEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("flower-jmh-").toFile();
+        File[] files = BenchmarkKeys.generate("file-" + Thread.currentThread().getId()).writeTo(directory);
+        spec = RsaFileKeySpec.of(files[0], files[1]);
+        engine = new RsaFileKeyEngine();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public RsaFileKeyEngine load() throws Exception {
+        engine.load(spec);
+        return engine;
+    }
+
+    /** Load followed by the factory lookup; the pair is unchanged, so the factory comes from the cache. */
+    @Benchmark
+    public KeyManagerFactory loadAndGetKeyManagerFactory() throws Exception {
+        engine.load(spec);
+        return engine.getKeyManagerFactory();
+    }
+}
@@ -0,0 +1,67 @@
+package com.flower.crypt.keys.jmh;
+
+import com.flower.crypt.keys.engine.KeyFingerprint;
+import com.flower.crypt.keys.engine.KeyManagerFactoryCache;
+import com.flower.crypt.keys.engine.RsaRawKeyEngine;
+import com.flower.crypt.keys.engine.RsaRawKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.net.ssl.KeyManagerFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code getKeyManagerFactory()} of the engine behind the "Raw" tab.
+ * Cold: every call sees a new spec and an empty cache entry, so it pays for PEM parsing and the factory build.
+ * Warm: the spec doesn't change, so calls are served from the parsed keys and the shared factory cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RsaRawKeyManagerFactoryBenchmark {
+    /** Per-thread key material, so threads don't invalidate each other's cache entries. */
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        BenchmarkKeys keys;
+        String fingerprint;
+        RsaRawKeyEngine engine;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            keys = BenchmarkKeys.generate("raw-" + Thread.currentThread().getId());
+            fingerprint = KeyFingerprint.sha256(keys.certificate(), keys.privateKey());
+            engine = new RsaRawKeyEngine(RsaRawKeySpec.of(keys.certificatePem(), keys.privateKeyPem()));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ColdKeys extends ThreadKeys {
+        boolean trailingNewline;
+
+        @Setup(Level.Invocation)
+        public void evict() {
+            // The engine remembers the last PEM text it parsed, so alternate between two spellings of the same keys
+            // to make every invocation parse again. The new spec also cancels the previous one's background prepare
+            // long before its debounce runs out, so nothing refills the cache behind the benchmark's back.
+            trailingNewline = !trailingNewline;
+            String suffix = trailingNewline ? "\n" : "";
+            engine.setSpec(RsaRawKeySpec.of(keys.certificatePem() + suffix, keys.privateKeyPem() + suffix));
+            KeyManagerFactoryCache.shared().invalidate(fingerprint);
+        }
+    }
+
+    @Benchmark
+    public KeyManagerFactory cold(ColdKeys state) {
+        return state.engine.getKeyManagerFactory();
+    }
+
+    @Benchmark
+    public KeyManagerFactory warm(ThreadKeys state) {
+        return state.engine.getKeyManagerFactory();
+    }
+}
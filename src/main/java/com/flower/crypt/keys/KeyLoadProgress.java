@@ -0,0 +1,14 @@
+package com.flower.crypt.keys;
+
+/** Receives stage updates from long-running key loads. Called on the loading thread. */
+@FunctionalInterface
+public interface KeyLoadProgress {
+    KeyLoadProgress NONE = (stage, done, total) -> {};
+
+    /**
+     * @param stage what the load is doing now, e.g. "Reading certificate"
+     * @param done stages completed so far
+     * @param total stages in this load
+     */
+    void onProgress(String stage, int done, int total);
+}
@@ -0,0 +1,100 @@
+package com.flower.crypt.keys;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dedicated executor for blocking key loading (file reads, token logins, PEM parsing), kept off the JavaFX
+ * application thread and off callers' I/O threads. Uses virtual threads when running on Java 21+.
+ */
+public final class KeyLoaders {
+    final static Logger LOGGER = LoggerFactory.getLogger(KeyLoaders.class);
+
+    static final ExecutorService EXECUTOR = createExecutor();
+    static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("key-loader-scheduler-%d").setDaemon(true).build());
+
+    private KeyLoaders() {
+    }
+
+    static ExecutorService createExecutor() {
+        try {
+            // Java 21+; looked up reflectively since the build targets 17.
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.debug("Virtual threads not available, using a platform thread pool for key loading");
+            return Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setNameFormat("key-loader-%d").setDaemon(true).build());
+        }
+    }
+
+    public static ExecutorService executor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Run {@code task} on the loader executor. Cancelling the returned future with {@code cancel(true)} interrupts
+     * the task; loads check for that between stages via {@link #checkCancelled()} and don't publish their result.
+     * Only the returned future propagates cancellation - stages derived from it with {@code thenApply} etc. don't.
+     */
+    public static <T> CompletableFuture<T> submit(Callable<T> task) {
+        LoadFuture<T> future = new LoadFuture<>();
+        future.setWorker(EXECUTOR.submit(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }));
+        return future;
+    }
+
+    /**
+     * Run {@code task} on the loader executor once {@code delay} has passed, e.g. to debounce work triggered by
+     * typing. Cancelling the returned future before then skips the task.
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, Duration delay) {
+        return SCHEDULER.schedule(() -> EXECUTOR.execute(task), delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /** Throw if the current load was cancelled; call between blocking stages. */
+    public static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Key loading cancelled");
+        }
+    }
+
+    static final class LoadFuture<T> extends CompletableFuture<T> {
+        @Nullable volatile Future<?> worker;
+
+        void setWorker(Future<?> worker) {
+            this.worker = worker;
+            if (isCancelled()) {
+                worker.cancel(true);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Future<?> worker = this.worker;
+            if (cancelled && worker != null) {
+                worker.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+}
@@ -1,5 +1,12 @@
 package com.flower.crypt.keys;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface KeyProvider {
     KeyContext getKeyContext();
+
+    /** {@link #getKeyContext()} on the {@link KeyLoaders} executor. */
+    default CompletableFuture<KeyContext> getKeyContextAsync() {
+        return KeyLoaders.submit(this::getKeyContext);
+    }
 }
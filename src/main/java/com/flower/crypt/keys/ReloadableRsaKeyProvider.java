@@ -0,0 +1,13 @@
+package com.flower.crypt.keys;
+
+import javax.net.ssl.KeyManagerFactory;
+
+/** An {@link RsaKeyProvider} whose key material can change while SSLContexts built from it are alive. */
+public interface ReloadableRsaKeyProvider extends RsaKeyProvider {
+    /**
+     * A factory whose key manager always serves the provider's current key material. Unlike
+     * {@link #getKeyManagerFactory()}, an SSLContext built from it picks up rotations without being rebuilt.
+     * The same instance is returned on every call.
+     */
+    KeyManagerFactory getReloadableKeyManagerFactory();
+}
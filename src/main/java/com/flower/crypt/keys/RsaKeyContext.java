@@ -3,13 +3,28 @@ package com.flower.crypt.keys;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.util.List;
 
 public interface RsaKeyContext extends KeyContext {
     PublicKey publicKey();
     PrivateKey privateKey();
     X509Certificate certificate();
 
+    /** {@link #certificate()} followed by its intermediates, in issuing order; just the certificate if there are none. */
+    default List<X509Certificate> certificateChain() {
+        return List.of(certificate());
+    }
+
     static RsaKeyContext of(PublicKey publicKey, PrivateKey privateKey, X509Certificate certificate) {
+        return of(publicKey, privateKey, List.of(certificate));
+    }
+
+    /** @param chain leaf certificate first */
+    static RsaKeyContext of(PublicKey publicKey, PrivateKey privateKey, List<X509Certificate> chain) {
+        List<X509Certificate> certificateChain = List.copyOf(chain);
+        if (certificateChain.isEmpty()) {
+            throw new IllegalArgumentException("Empty certificate chain");
+        }
         return new RsaKeyContext() {
             @Override
             public PublicKey publicKey() {
@@ -23,7 +38,12 @@ public interface RsaKeyContext extends KeyContext {
 
             @Override
             public X509Certificate certificate() {
-                return certificate;
+                return certificateChain.get(0);
+            }
+
+            @Override
+            public List<X509Certificate> certificateChain() {
+                return certificateChain;
             }
         };
     }
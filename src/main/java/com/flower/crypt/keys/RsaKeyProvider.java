@@ -1,7 +1,13 @@
 package com.flower.crypt.keys;
 
 import javax.net.ssl.KeyManagerFactory;
+import java.util.concurrent.CompletableFuture;
 
 public interface RsaKeyProvider extends KeyProvider {
     KeyManagerFactory getKeyManagerFactory();
+
+    /** {@link #getKeyManagerFactory()} on the {@link KeyLoaders} executor. */
+    default CompletableFuture<KeyManagerFactory> getKeyManagerFactoryAsync() {
+        return KeyLoaders.submit(this::getKeyManagerFactory);
+    }
 }
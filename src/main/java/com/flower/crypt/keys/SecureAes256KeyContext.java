@@ -0,0 +1,59 @@
+package com.flower.crypt.keys;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link Aes256KeyContext} whose key and IV live in a {@link SecureKeyBuffer} instead of on the heap.
+ * Prefer {@link #keyView()}/{@link #ivView()}; {@link #aes256Key()} and {@link #aes256Iv()} return fresh copies
+ * for the existing API. {@link #close()} wipes the key material.
+ */
+public final class SecureAes256KeyContext implements Aes256KeyContext, AutoCloseable {
+    static final int KEY = 0;
+    static final int IV = 1;
+
+    final SecureKeyBuffer buffer;
+    final boolean hasIv;
+
+    SecureAes256KeyContext(SecureKeyBuffer buffer, boolean hasIv) {
+        this.buffer = buffer;
+        this.hasIv = hasIv;
+    }
+
+    /** Move {@code aes256Key} and {@code aes256Iv} off-heap; the arrays passed in are zeroed. */
+    public static SecureAes256KeyContext of(byte[] aes256Key, @Nullable byte[] aes256Iv) {
+        SecureKeyBuffer buffer = aes256Iv == null
+                ? SecureKeyBuffer.of(aes256Key)
+                : SecureKeyBuffer.of(aes256Key, aes256Iv);
+        return new SecureAes256KeyContext(buffer, aes256Iv != null);
+    }
+
+    public ByteBuffer keyView() {
+        return buffer.view(KEY);
+    }
+
+    @Nullable public ByteBuffer ivView() {
+        return hasIv ? buffer.view(IV) : null;
+    }
+
+    /** Heap copy of the key; prefer {@link #keyView()}. */
+    @Override
+    public byte[] aes256Key() {
+        return buffer.copy(KEY);
+    }
+
+    /** Heap copy of the IV; prefer {@link #ivView()}. */
+    @Override
+    @Nullable public byte[] aes256Iv() {
+        return hasIv ? buffer.copy(IV) : null;
+    }
+
+    public boolean isClosed() {
+        return buffer.isClosed();
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+}
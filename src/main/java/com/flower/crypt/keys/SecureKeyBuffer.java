@@ -0,0 +1,98 @@
+package com.flower.crypt.keys;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Secret bytes held in one off-heap region, outside the GC's reach: the garbage collector never copies them
+ * between generations, and {@link #close()} overwrites them with zeros.
+ * <p>
+ * Secrets are read through read-only {@link #view views} of the region rather than copies. Views read zeros once
+ * the buffer is closed; {@link #copy} exists for APIs that insist on a {@code byte[]}, and the caller should wipe
+ * that copy when done.
+ */
+public final class SecureKeyBuffer implements AutoCloseable {
+    final ByteBuffer buffer;
+    final int[] offsets;
+    final int[] lengths;
+    volatile boolean closed;
+
+    SecureKeyBuffer(ByteBuffer buffer, int[] offsets, int[] lengths) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /** Copy {@code secrets} into a new buffer, in order, and zero the arrays passed in. */
+    public static SecureKeyBuffer of(byte[]... secrets) {
+        int[] offsets = new int[secrets.length];
+        int[] lengths = new int[secrets.length];
+        int total = 0;
+        for (int i = 0; i < secrets.length; i++) {
+            offsets[i] = total;
+            lengths[i] = checkNotNull(secrets[i]).length;
+            total += lengths[i];
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(total);
+        for (byte[] secret : secrets) {
+            buffer.put(secret);
+            Arrays.fill(secret, (byte)0);
+        }
+        return new SecureKeyBuffer(buffer, offsets, lengths);
+    }
+
+    /** Number of secrets in the buffer. */
+    public int count() {
+        return offsets.length;
+    }
+
+    public int length(int index) {
+        checkElementIndex(index, offsets.length);
+        return lengths[index];
+    }
+
+    /** Read-only view of secret {@code index}, sharing the buffer's memory. */
+    public ByteBuffer view(int index) {
+        checkElementIndex(index, offsets.length);
+        checkOpen();
+        return buffer.slice(offsets[index], lengths[index]).asReadOnlyBuffer();
+    }
+
+    /** Heap copy of secret {@code index}; wipe it with {@code Arrays.fill(copy, (byte)0)} after use. */
+    public byte[] copy(int index) {
+        ByteBuffer view = view(index);
+        byte[] copy = new byte[view.remaining()];
+        view.get(copy);
+        return copy;
+    }
+
+    void checkOpen() {
+        checkState(!closed, "Key buffer is closed");
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** Overwrite every secret with zeros. Idempotent. */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        int capacity = buffer.capacity();
+        int i = 0;
+        for (; i + Long.BYTES <= capacity; i += Long.BYTES) {
+            buffer.putLong(i, 0L);
+        }
+        for (; i < capacity; i++) {
+            buffer.put(i, (byte)0);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.flower.crypt.keys;
+
+import javax.security.auth.DestroyFailedException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * {@link RsaKeyContext} that keeps the PKCS#8 encoding of the private key in a {@link SecureKeyBuffer}.
+ * The certificate chain and public key are public and stay on the heap.
+ * <p>
+ * The key is decoded on demand, once per use: {@link #withPrivateKey} decodes it for one operation and destroys it
+ * after where the key type allows; {@link #privateKey()} hands the decoded key to the caller for the existing API.
+ * Each decode leaves a key object on the heap until it's collected, so decode once per operation, not per step.
+ * {@link #close()} wipes the encoded key.
+ */
+public final class SecureRsaKeyContext implements RsaKeyContext, AutoCloseable {
+    /** An operation on the decoded private key, e.g. signing or decrypting one message. */
+    @FunctionalInterface
+    public interface PrivateKeyUse<T> {
+        T apply(PrivateKey privateKey) throws GeneralSecurityException;
+    }
+
+    final PublicKey publicKey;
+    final List<X509Certificate> certificateChain;
+    final String keyAlgorithm;
+    final SecureKeyBuffer encodedKey;
+
+    SecureRsaKeyContext(PublicKey publicKey, List<X509Certificate> certificateChain, String keyAlgorithm,
+                        SecureKeyBuffer encodedKey) {
+        this.publicKey = publicKey;
+        this.certificateChain = certificateChain;
+        this.keyAlgorithm = keyAlgorithm;
+        this.encodedKey = encodedKey;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the private key can't be exported, e.g. it's a PKCS#11 token handle -
+     *         such keys never leave the token, so there is nothing to protect
+     */
+    public static SecureRsaKeyContext of(PublicKey publicKey, PrivateKey privateKey, X509Certificate certificate) {
+        return of(publicKey, privateKey, List.of(certificate));
+    }
+
+    /** @param chain leaf certificate first */
+    public static SecureRsaKeyContext of(PublicKey publicKey, PrivateKey privateKey, List<X509Certificate> chain) {
+        checkArgument(!chain.isEmpty(), "Empty certificate chain");
+        byte[] encoded = privateKey.getEncoded();
+        checkArgument(encoded != null && "PKCS#8".equals(privateKey.getFormat()),
+                "Private key is not exportable as PKCS#8: %s", privateKey.getAlgorithm());
+        return new SecureRsaKeyContext(publicKey, List.copyOf(chain), privateKey.getAlgorithm(), SecureKeyBuffer.of(encoded));
+    }
+
+    public static SecureRsaKeyContext copyOf(RsaKeyContext keyContext) {
+        return of(keyContext.publicKey(), keyContext.privateKey(), keyContext.certificateChain());
+    }
+
+    @Override
+    public PublicKey publicKey() {
+        return publicKey;
+    }
+
+    @Override
+    public X509Certificate certificate() {
+        return certificateChain.get(0);
+    }
+
+    @Override
+    public List<X509Certificate> certificateChain() {
+        return certificateChain;
+    }
+
+    /** PKCS#8 encoding of the private key, as a read-only view of the off-heap buffer. */
+    public ByteBuffer encodedPrivateKeyView() {
+        return encodedKey.view(0);
+    }
+
+    /** Decode the private key for {@code use} only; it's destroyed afterwards if its implementation supports that. */
+    public <T> T withPrivateKey(PrivateKeyUse<T> use) throws GeneralSecurityException {
+        PrivateKey privateKey = privateKey();
+        try {
+            return use.apply(privateKey);
+        } finally {
+            try {
+                privateKey.destroy();
+            } catch (DestroyFailedException e) {
+                // The JDK's RSA keys can't be destroyed; the object is left for the collector.
+            }
+        }
+    }
+
+    /** A newly decoded key on every call; prefer {@link #withPrivateKey}, or keep the result for the whole operation. */
+    @Override
+    public PrivateKey privateKey() {
+        byte[] encoded = encodedKey.copy(0);
+        try {
+            return KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Arrays.fill(encoded, (byte)0);
+        }
+    }
+
+    public boolean isClosed() {
+        return encodedKey.isClosed();
+    }
+
+    @Override
+    public void close() {
+        encodedKey.close();
+    }
+}
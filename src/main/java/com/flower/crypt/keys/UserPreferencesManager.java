@@ -1,19 +1,224 @@
 package com.flower.crypt.keys;
 
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.flower.crypt.keys.profile.FileKeyProfileStore;
+import com.flower.crypt.keys.profile.KeyProfileStore;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
+/**
+ * Preference reads and writes with a write-behind cache in front of {@link Preferences}.
+ * <p>
+ * Updates land in memory immediately and are written to the backing store by a background thread once they stop
+ * coming for {@link #DEBOUNCE} (at most {@link #MAX_DELAY} after the first pending one), with only the latest value
+ * per key written and one {@link Preferences#flush()} per batch. Typing or pasting into a bound text field thus costs
+ * one store write instead of one per keystroke. Reads are served from memory after the first read of a key.
+ * <p>
+ * Settings are read from and written to the active profile of a {@link KeyProfileStore}: the one installed with
+ * {@link #useProfileStore}, or else a {@link FileKeyProfileStore} at {@link #defaultProfileFile()}, opened on first
+ * use. Opening it copies the {@code flowerCertificateChooser*} {@link Preferences} the default profile doesn't have
+ * yet into it. If it can't be opened, settings stay in {@link Preferences}.
+ */
 public class UserPreferencesManager {
+    final static Logger LOGGER = LoggerFactory.getLogger(UserPreferencesManager.class);
+
+    public static final Duration DEBOUNCE = Duration.ofMillis(300);
+    public static final Duration MAX_DELAY = Duration.ofSeconds(2);
+    /** Prefix of the keys the key chooser forms keep in {@link Preferences}. */
+    public static final String KEY_PREFIX = "flowerCertificateChooser";
+
+    /** Last known value per node and key: read from the node, or written through this class. */
+    static final Map<Preferences, Map<String, String>> VALUES = new ConcurrentHashMap<>();
+    /** Values not yet written to their node, latest per key. Guarded by the class lock. */
+    static final Map<Preferences, Map<String, String>> PENDING = new HashMap<>();
+    /** Serializes flushes, so batches reach the store in the order they were taken. */
+    static final Object FLUSH_LOCK = new Object();
+
+    static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("preferences-writer-%d").setDaemon(true).build());
+    @Nullable static ScheduledFuture<?> scheduledFlush;
+    @Nullable static volatile KeyProfileStore profileStore;
+    /** Whether {@link #profileStore} was installed or the default opened, so it's never opened again. */
+    static volatile boolean profileStoreChosen;
+    static long firstPendingNanos;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(UserPreferencesManager::flush, "preferences-flush"));
+    }
+
+    /** Install {@code store} as the source of settings, or go back to {@link Preferences} with {@code null}. */
+    public static void useProfileStore(@Nullable KeyProfileStore store) {
+        flush();
+        synchronized (UserPreferencesManager.class) {
+            profileStore = store;
+            profileStoreChosen = true;
+        }
+    }
+
+    /** The installed store, opening the default one if none was chosen yet. */
+    @Nullable public static KeyProfileStore profileStore() {
+        if (!profileStoreChosen) {
+            synchronized (UserPreferencesManager.class) {
+                if (!profileStoreChosen) {
+                    profileStore = openDefaultProfileStore();
+                    profileStoreChosen = true;
+                }
+            }
+        }
+        return profileStore;
+    }
+
+    /** {@code ~/.flower/key-profiles.yaml} */
+    public static Path defaultProfileFile() {
+        return Paths.get(System.getProperty("user.home"), ".flower", "key-profiles.yaml");
+    }
+
+    @Nullable static KeyProfileStore openDefaultProfileStore() {
+        Path file = defaultProfileFile();
+        try {
+            FileKeyProfileStore store = FileKeyProfileStore.open(file);
+            migratePreferences(Preferences.userRoot(), store);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Can't open key profiles {}, keeping settings in preferences", file, e);
+            return null;
+        }
+    }
+
+    /** Copy the form settings kept in {@code node} into the store's default profile, where it doesn't have them. */
+    static void migratePreferences(Preferences node, KeyProfileStore store) {
+        if (!KeyProfileStore.DEFAULT_PROFILE.equals(store.activeProfile())) {
+            return;
+        }
+        try {
+            for (String key : node.keys()) {
+                if (key.startsWith(KEY_PREFIX) && store.get(key) == null) {
+                    store.put(key, node.get(key, ""));
+                }
+            }
+        } catch (BackingStoreException e) {
+            LOGGER.warn("Can't read preferences from {}, not moving them to key profiles", node.absolutePath(), e);
+        }
+    }
+
+    /** Update a setting in the profile store if one is installed, in {@link Preferences#userRoot()} otherwise. */
+    public static void updateUserPreference(String key, String newValue) {
+        KeyProfileStore store = profileStore();
+        if (store == null) {
+            updateUserPreference(Preferences.userRoot(), key, newValue);
+            return;
+        }
+        String value = StringUtils.defaultIfBlank(newValue, "");
+        if (!value.equals(getUserPreference(key))) {
+            store.put(key, value);
+            scheduleFlush();
+        }
+    }
+
     public static void updateUserPreference(Preferences userPreferences, String key, String newValue) {
-        String oldValue = userPreferences.get(key, "");
-        if (!newValue.equals(oldValue)) {
-            userPreferences.put(key, StringUtils.defaultIfBlank(newValue, ""));
+        if (userPreferences.equals(Preferences.userRoot()) && profileStore() != null) {
+            updateUserPreference(key, newValue);
+            return;
+        }
+        String value = StringUtils.defaultIfBlank(newValue, "");
+        String oldValue = cachedValue(userPreferences, key);
+        if (!value.equals(oldValue)) {
+            VALUES.computeIfAbsent(userPreferences, node -> new ConcurrentHashMap<>()).put(key, value);
+            scheduleWrite(userPreferences, key, value);
         }
     }
 
     public static String getUserPreference(String key) {
-        Preferences userPreferences = Preferences.userRoot();
-        return userPreferences.get(key, "");
+        KeyProfileStore store = profileStore();
+        if (store != null) {
+            String value = store.get(key);
+            if (value != null) {
+                return value;
+            }
+            if (!KeyProfileStore.DEFAULT_PROFILE.equals(store.activeProfile())) {
+                return "";
+            }
+        }
+        return cachedValue(Preferences.userRoot(), key);
+    }
+
+    static String cachedValue(Preferences node, String key) {
+        return VALUES.computeIfAbsent(node, n -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key, k -> node.get(k, ""));
+    }
+
+    static synchronized void scheduleWrite(Preferences node, String key, String value) {
+        PENDING.computeIfAbsent(node, n -> new HashMap<>()).put(key, value);
+        scheduleFlush();
+    }
+
+    static synchronized void scheduleFlush() {
+        long now = System.nanoTime();
+        if (scheduledFlush == null) {
+            firstPendingNanos = now;
+        }
+        long untilMaxDelay = Math.max(0, firstPendingNanos + MAX_DELAY.toNanos() - now);
+        ScheduledFuture<?> previous = scheduledFlush;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        scheduledFlush = WRITER.schedule(UserPreferencesManager::flush,
+                Math.min(DEBOUNCE.toNanos(), untilMaxDelay), TimeUnit.NANOSECONDS);
+    }
+
+    static synchronized Map<Preferences, Map<String, String>> takePending() {
+        Map<Preferences, Map<String, String>> batch = new HashMap<>(PENDING);
+        PENDING.clear();
+        ScheduledFuture<?> previous = scheduledFlush;
+        if (previous != null) {
+            previous.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    /** Write all pending updates now, on the calling thread, then the profile store if any. Also runs on JVM shutdown. */
+    public static void flush() {
+        synchronized (FLUSH_LOCK) {
+            takePending().forEach((node, values) -> {
+                values.forEach(node::put);
+                try {
+                    node.flush();
+                    Metrics.increment(Metrics.PREFERENCES, KeyMetrics.Counter.PREFERENCES_FLUSH);
+                } catch (BackingStoreException e) {
+                    Metrics.increment(Metrics.PREFERENCES, KeyMetrics.Counter.PREFERENCES_FLUSH_FAILURE);
+                    LOGGER.warn("Failed to write preferences to {}", node.absolutePath(), e);
+                }
+            });
+
+            KeyProfileStore store = profileStore;
+            if (store != null) {
+                try {
+                    store.flush();
+                    Metrics.increment(Metrics.PREFERENCES, KeyMetrics.Counter.PREFERENCES_FLUSH);
+                } catch (IOException e) {
+                    Metrics.increment(Metrics.PREFERENCES, KeyMetrics.Counter.PREFERENCES_FLUSH_FAILURE);
+                    LOGGER.warn("Failed to write key profiles", e);
+                }
+            }
+        }
     }
 }
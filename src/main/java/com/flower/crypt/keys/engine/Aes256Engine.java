@@ -0,0 +1,248 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.Aes256KeyContext;
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.SecureAes256KeyContext;
+
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * AES-256 encryption and decryption with one key, reusing an initialized {@link Cipher} per thread instead of
+ * creating one per message. Data goes from caller-supplied {@link ByteBuffer}s to caller-supplied buffers;
+ * with direct buffers nothing is copied through the heap.
+ * <p>
+ * For decryption a cipher is only re-initialized when the IV changes; encryption always re-initializes, as each
+ * message must have its own IV. Use {@link #seal}/{@link #open} to have a random IV generated and carried in front
+ * of the ciphertext.
+ * <p>
+ * Ciphers are held in a {@link ThreadLocal}, so reuse pays off on pooled platform threads; a virtual thread
+ * per message gets a new cipher each time.
+ */
+public class Aes256Engine {
+    public static final int KEY_LENGTH = 32;
+    public static final int GCM_IV_LENGTH = 12;
+    public static final int GCM_TAG_LENGTH = 16;
+    public static final int BLOCK_LENGTH = 16;
+
+    public enum Mode {
+        GCM("AES/GCM/NoPadding", GCM_IV_LENGTH),
+        CBC("AES/CBC/PKCS5Padding", BLOCK_LENGTH),
+        CTR("AES/CTR/NoPadding", BLOCK_LENGTH);
+
+        final String transformation;
+        final int ivLength;
+
+        Mode(String transformation, int ivLength) {
+            this.transformation = transformation;
+            this.ivLength = ivLength;
+        }
+
+        public String transformation() {
+            return transformation;
+        }
+
+        public int ivLength() {
+            return ivLength;
+        }
+    }
+
+    static final SecureRandom RANDOM = new SecureRandom();
+
+    /** A thread's cipher and the operation/IV it was last initialized with. */
+    static final class CipherSlot {
+        final Cipher cipher;
+        final byte[] iv;
+        final byte[] scratchIv;
+        int opmode = -1;
+
+        CipherSlot(Cipher cipher, int ivLength) {
+            this.cipher = cipher;
+            this.iv = new byte[ivLength];
+            this.scratchIv = new byte[ivLength];
+        }
+    }
+
+    final Mode mode;
+    final SecretKeySpec key;
+    @Nullable final byte[] defaultIv;
+    final ThreadLocal<CipherSlot> cipherSlots;
+
+    Aes256Engine(Mode mode, byte[] key, @Nullable byte[] defaultIv) {
+        checkArgument(key.length == KEY_LENGTH, "AES-256 key must be %s bytes, got %s", KEY_LENGTH, key.length);
+        checkArgument(defaultIv == null || defaultIv.length == mode.ivLength,
+                "%s IV must be %s bytes", mode, mode.ivLength);
+        this.mode = mode;
+        this.key = new SecretKeySpec(key, "AES");
+        this.defaultIv = defaultIv == null ? null : defaultIv.clone();
+        this.cipherSlots = ThreadLocal.withInitial(() -> new CipherSlot(newCipher(mode), mode.ivLength));
+    }
+
+    /**
+     * Engine for the key, and IV if any, of an {@link Aes256KeyContext} - e.g. the one returned by
+     * {@code AesRawKeyProvider.getKeyContext()}. The context's IV becomes the {@link #defaultIv()}.
+     */
+    public static Aes256Engine of(KeyContext keyContext, Mode mode) {
+        checkArgument(keyContext instanceof Aes256KeyContext, "Not an AES-256 key context");
+        Aes256KeyContext aesKeyContext = (Aes256KeyContext)keyContext;
+        byte[] key = aesKeyContext.aes256Key();
+        try {
+            return new Aes256Engine(checkNotNull(mode), key, aesKeyContext.aes256Iv());
+        } finally {
+            // An off-heap context hands out a temporary copy; don't leave it behind on the heap.
+            if (keyContext instanceof SecureAes256KeyContext) {
+                Arrays.fill(key, (byte)0);
+            }
+        }
+    }
+
+    static Cipher newCipher(Mode mode) {
+        try {
+            return Cipher.getInstance(mode.transformation);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /** IV from the key context, if it had one. */
+    @Nullable public byte[] defaultIv() {
+        return defaultIv == null ? null : defaultIv.clone();
+    }
+
+    /** A random IV of the length this mode uses. */
+    public byte[] newIv() {
+        byte[] iv = new byte[mode.ivLength];
+        RANDOM.nextBytes(iv);
+        return iv;
+    }
+
+    /** Upper bound of the ciphertext size for {@code plaintextLength} bytes, without an IV prefix. */
+    public int ciphertextSize(int plaintextLength) {
+        switch (mode) {
+            case GCM: return plaintextLength + GCM_TAG_LENGTH;
+            case CBC: return (plaintextLength / BLOCK_LENGTH + 1) * BLOCK_LENGTH;
+            default: return plaintextLength;
+        }
+    }
+
+    /** Upper bound of the {@link #seal} output size for {@code plaintextLength} bytes. */
+    public int sealedSize(int plaintextLength) {
+        return mode.ivLength + ciphertextSize(plaintextLength);
+    }
+
+    public int encrypt(byte[] iv, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return encrypt(iv, null, input, output);
+    }
+
+    /**
+     * Encrypt the remaining bytes of {@code input} into {@code output}, advancing both.
+     * @param aad additional authenticated data, GCM only
+     * @return number of bytes written to {@code output}
+     */
+    public int encrypt(byte[] iv, @Nullable ByteBuffer aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException {
+        return doFinal(Cipher.ENCRYPT_MODE, iv, aad, input, output);
+    }
+
+    public int decrypt(byte[] iv, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return decrypt(iv, null, input, output);
+    }
+
+    /**
+     * Decrypt the remaining bytes of {@code input} into {@code output}, advancing both.
+     * For GCM nothing is written unless the tag verifies; an {@link javax.crypto.AEADBadTagException} is thrown otherwise.
+     */
+    public int decrypt(byte[] iv, @Nullable ByteBuffer aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException {
+        return doFinal(Cipher.DECRYPT_MODE, iv, aad, input, output);
+    }
+
+    /**
+     * Decrypt with the key context's IV, e.g. data encrypted elsewhere under that fixed IV. There is no encrypting
+     * counterpart: encrypting several messages under one IV repeats the CTR keystream and makes CBC deterministic,
+     * so encryption always takes an explicit per-message IV or goes through {@link #seal}.
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return decrypt(requireDefaultIv(), null, input, output);
+    }
+
+    /** Encrypt under a fresh random IV, written to {@code output} ahead of the ciphertext. */
+    public int seal(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        CipherSlot slot = cipherSlots.get();
+        RANDOM.nextBytes(slot.scratchIv);
+        output.put(slot.scratchIv);
+        return mode.ivLength + doFinal(slot, Cipher.ENCRYPT_MODE, slot.scratchIv, null, input, output);
+    }
+
+    /** Decrypt {@link #seal} output: the IV is read from the front of {@code input}. */
+    public int open(ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        CipherSlot slot = cipherSlots.get();
+        input.get(slot.scratchIv);
+        return doFinal(slot, Cipher.DECRYPT_MODE, slot.scratchIv, null, input, output);
+    }
+
+    byte[] requireDefaultIv() {
+        byte[] iv = defaultIv;
+        checkState(iv != null, "Key context has no IV");
+        return iv;
+    }
+
+    int doFinal(int opmode, byte[] iv, @Nullable ByteBuffer aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException {
+        return doFinal(cipherSlots.get(), opmode, iv, aad, input, output);
+    }
+
+    int doFinal(CipherSlot slot, int opmode, byte[] iv, @Nullable ByteBuffer aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException {
+        checkArgument(iv.length == mode.ivLength, "%s IV must be %s bytes", mode, mode.ivLength);
+        checkArgument(aad == null || mode == Mode.GCM, "Additional authenticated data needs GCM");
+
+        init(slot, opmode, iv);
+        try {
+            if (aad != null) {
+                slot.cipher.updateAAD(aad);
+            }
+            return slot.cipher.doFinal(input, output);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // The cipher's state is unknown after a failure; re-initialize on next use.
+            slot.opmode = -1;
+            throw e;
+        }
+    }
+
+    /**
+     * After {@code doFinal} a cipher returns to the state of its last {@code init}, so a decrypting cipher is only
+     * re-initialized when the IV changes. Encryption is always re-initialized: keeping an encrypting cipher would
+     * invite encrypting twice under one IV, which the JDK refuses for GCM and which breaks CTR and CBC silently.
+     */
+    void init(CipherSlot slot, int opmode, byte[] iv) throws GeneralSecurityException {
+        boolean reusable = opmode == Cipher.DECRYPT_MODE && slot.opmode == opmode && Arrays.equals(slot.iv, iv);
+        if (!reusable) {
+            AlgorithmParameterSpec parameters = mode == Mode.GCM
+                    ? new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv)
+                    : new IvParameterSpec(iv);
+            slot.opmode = -1;
+            slot.cipher.init(opmode, key, parameters);
+            System.arraycopy(iv, 0, slot.iv, 0, iv.length);
+            slot.opmode = opmode;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.KeyContext;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nullable;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Encrypts files and streams of any size with AES-256 in fixed-size, individually authenticated chunks,
+ * so memory use doesn't depend on the input size and chunks of a file can be processed on all cores.
+ * <p>
+ * Format: a 22-byte header - magic {@code FLWRAESC}, version, mode, chunk size, 8-byte random nonce - followed by
+ * chunks of {@code chunkSize} plaintext bytes, each stored as ciphertext plus a 16-byte tag. The last chunk is
+ * always shorter than {@code chunkSize}, possibly empty, and is marked as last in its authenticated data, so
+ * truncating, reordering or splicing chunks fails decryption.
+ * <ul>
+ *   <li>GCM: IV is nonce + chunk index; the header and last-chunk flag are the additional authenticated data.</li>
+ *   <li>CTR: counter starts at nonce + chunk offset in blocks; the tag is HMAC-SHA256 over header, chunk index,
+ *   last-chunk flag and ciphertext, truncated to 16 bytes, with a MAC key derived from the AES key.</li>
+ * </ul>
+ */
+public class Aes256FileCipher {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /** Largest chunk size accepted from a file header; keeps a corrupt header from allocating huge buffers. */
+    public static final int MAX_CHUNK_SIZE = 64 << 20;
+    public static final int HEADER_LENGTH = 22;
+    public static final int TAG_LENGTH = 16;
+
+    static final byte[] MAGIC = "FLWRAESC".getBytes(StandardCharsets.US_ASCII);
+    static final byte VERSION = 1;
+    static final int NONCE_LENGTH = 8;
+    static final String MAC_ALGORITHM = "HmacSHA256";
+    static final byte[] MAC_KEY_LABEL = "flower-aes256-ctr-chunk-mac".getBytes(StandardCharsets.US_ASCII);
+
+    static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("aes-file-%d").setDaemon(true).build());
+
+    final Aes256Engine engine;
+    final int chunkSize;
+    final int parallelism;
+    @Nullable final SecretKeySpec macKey;
+
+    public Aes256FileCipher(Aes256Engine engine) {
+        this(engine, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param chunkSize plaintext bytes per chunk when encrypting, a multiple of 16; decryption uses the file's own
+     * @param parallelism chunks processed at once for file-to-file operations
+     */
+    public Aes256FileCipher(Aes256Engine engine, int chunkSize, int parallelism) {
+        checkArgument(engine.mode() != Aes256Engine.Mode.CBC, "Chunked files use GCM or CTR");
+        checkChunkSize(chunkSize);
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.engine = engine;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.macKey = engine.mode() == Aes256Engine.Mode.CTR ? deriveMacKey(engine.key) : null;
+    }
+
+    public static Aes256FileCipher of(KeyContext keyContext, Aes256Engine.Mode mode) {
+        return new Aes256FileCipher(Aes256Engine.of(keyContext, mode));
+    }
+
+    static void checkChunkSize(int chunkSize) {
+        checkArgument(chunkSize > 0 && chunkSize <= MAX_CHUNK_SIZE && chunkSize % Aes256Engine.BLOCK_LENGTH == 0,
+                "Chunk size must be a positive multiple of 16 up to %s, got %s", MAX_CHUNK_SIZE, chunkSize);
+    }
+
+    static SecretKeySpec deriveMacKey(SecretKeySpec aesKey) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(aesKey);
+            return new SecretKeySpec(mac.doFinal(MAC_KEY_LABEL), MAC_ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Aes256Engine.Mode mode() {
+        return engine.mode();
+    }
+
+    /** Size of the encrypted form of {@code plaintextLength} bytes. */
+    public long encryptedSize(long plaintextLength) {
+        return HEADER_LENGTH + plaintextLength + (plaintextLength / chunkSize + 1) * TAG_LENGTH;
+    }
+
+    static final class Header {
+        final Aes256Engine.Mode mode;
+        final int chunkSize;
+        final byte[] nonce;
+        final byte[] bytes;
+
+        Header(Aes256Engine.Mode mode, int chunkSize, byte[] nonce) {
+            this.mode = mode;
+            this.chunkSize = chunkSize;
+            this.nonce = nonce;
+            this.bytes = ByteBuffer.allocate(HEADER_LENGTH)
+                    .put(MAGIC).put(VERSION).put((byte)mode.ordinal()).putInt(chunkSize).put(nonce)
+                    .array();
+        }
+
+        static Header create(Aes256Engine.Mode mode, int chunkSize) {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            Aes256Engine.RANDOM.nextBytes(nonce);
+            return new Header(mode, chunkSize, nonce);
+        }
+
+        static Header parse(ByteBuffer buffer) throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an encrypted file");
+            }
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported format version " + version);
+            }
+            int modeOrdinal = buffer.get();
+            Aes256Engine.Mode[] modes = Aes256Engine.Mode.values();
+            if (modeOrdinal < 0 || modeOrdinal >= modes.length || modes[modeOrdinal] == Aes256Engine.Mode.CBC) {
+                throw new IOException("Unsupported mode " + modeOrdinal);
+            }
+            int chunkSize = buffer.getInt();
+            try {
+                checkChunkSize(chunkSize);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            byte[] nonce = new byte[NONCE_LENGTH];
+            buffer.get(nonce);
+            return new Header(modes[modeOrdinal], chunkSize, nonce);
+        }
+    }
+
+    /** Per-thread chunk state: scratch IV, AAD and output buffers, reused for every chunk the thread handles. */
+    final class ChunkCodec {
+        final Header header;
+        final byte[] iv = new byte[engine.mode().ivLength()];
+        final ByteBuffer ivView = ByteBuffer.wrap(iv);
+        final ByteBuffer aad = ByteBuffer.allocate(HEADER_LENGTH + Long.BYTES + 1);
+        final byte[] macOut = new byte[32];
+        final byte[] tag = new byte[TAG_LENGTH];
+        final byte[] storedTag = new byte[TAG_LENGTH];
+        /** Where file-to-file operations read a chunk into; one per worker, reused for all its chunks. */
+        final ByteBuffer input;
+        final ByteBuffer output;
+        @Nullable final Mac mac;
+
+        ChunkCodec(Header header) throws GeneralSecurityException {
+            if (header.mode != engine.mode()) {
+                throw new GeneralSecurityException("Encrypted with " + header.mode + ", this cipher uses " + engine.mode());
+            }
+            this.header = header;
+            this.input = ByteBuffer.allocateDirect(header.chunkSize + TAG_LENGTH);
+            this.output = ByteBuffer.allocateDirect(header.chunkSize + TAG_LENGTH);
+            if (macKey != null) {
+                mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(macKey);
+            } else {
+                mac = null;
+            }
+        }
+
+        void prepare(long index, boolean last) {
+            ivView.clear();
+            ivView.put(header.nonce);
+            if (engine.mode() == Aes256Engine.Mode.GCM) {
+                checkArgument(index < 1L << 32, "Too many chunks");
+                ivView.putInt((int)index);
+            } else {
+                ivView.putLong(index * (header.chunkSize / Aes256Engine.BLOCK_LENGTH));
+            }
+
+            aad.clear();
+            aad.put(header.bytes);
+            if (mac != null) {
+                aad.putLong(index);
+            }
+            aad.put(last ? (byte)1 : (byte)0);
+            aad.flip();
+        }
+
+        /** Encrypt {@code plaintext} as chunk {@code index}; returns the ciphertext and tag, ready to write. */
+        ByteBuffer encrypt(long index, boolean last, ByteBuffer plaintext) throws GeneralSecurityException {
+            prepare(index, last);
+            output.clear();
+            if (mac == null) {
+                engine.encrypt(iv, aad, plaintext, output);
+            } else {
+                engine.encrypt(iv, plaintext, output);
+                ByteBuffer ciphertext = output.duplicate().flip();
+                computeTag(mac, ciphertext);
+                output.put(tag);
+            }
+            return output.flip();
+        }
+
+        /** Verify and decrypt chunk {@code index}; returns the plaintext, ready to write. */
+        ByteBuffer decrypt(long index, boolean last, ByteBuffer encrypted) throws GeneralSecurityException {
+            prepare(index, last);
+            output.clear();
+            if (mac == null) {
+                engine.decrypt(iv, aad, encrypted, output);
+            } else {
+                ByteBuffer ciphertext = encrypted.duplicate();
+                ciphertext.limit(encrypted.limit() - TAG_LENGTH);
+                computeTag(mac, ciphertext.duplicate());
+                encrypted.get(ciphertext.limit(), storedTag);
+                if (!MessageDigest.isEqual(storedTag, tag)) {
+                    throw new AEADBadTagException("Chunk " + index + " failed authentication");
+                }
+                engine.decrypt(iv, ciphertext, output);
+                encrypted.position(encrypted.limit());
+            }
+            return output.flip();
+        }
+
+        void computeTag(Mac mac, ByteBuffer ciphertext) throws GeneralSecurityException {
+            mac.update(aad);
+            aad.rewind();
+            mac.update(ciphertext);
+            mac.doFinal(macOut, 0);
+            System.arraycopy(macOut, 0, tag, 0, TAG_LENGTH);
+        }
+    }
+
+    /** Encrypt everything {@code in} delivers, one chunk at a time on the calling thread. */
+    public void encrypt(ReadableByteChannel in, WritableByteChannel out) throws IOException, GeneralSecurityException {
+        Header header = Header.create(engine.mode(), chunkSize);
+        ChunkCodec codec = new ChunkCodec(header);
+        writeFully(out, ByteBuffer.wrap(header.bytes));
+
+        ByteBuffer plaintext = ByteBuffer.allocateDirect(chunkSize);
+        for (long index = 0; ; index++) {
+            plaintext.clear();
+            // A full chunk is never the last one; the input ends with a short (possibly empty) chunk.
+            boolean last = !readFully(in, plaintext);
+            writeFully(out, codec.encrypt(index, last, plaintext.flip()));
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /** Decrypt a stream written by {@link #encrypt}; fails if any chunk was altered or the stream was cut short. */
+    public void decrypt(ReadableByteChannel in, WritableByteChannel out) throws IOException, GeneralSecurityException {
+        ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_LENGTH);
+        if (!readFully(in, headerBuffer)) {
+            throw new EOFException("Truncated header");
+        }
+        Header header = Header.parse(headerBuffer.flip());
+        ChunkCodec codec = new ChunkCodec(header);
+
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(header.chunkSize + TAG_LENGTH);
+        for (long index = 0; ; index++) {
+            encrypted.clear();
+            boolean last = !readFully(in, encrypted);
+            if (last && encrypted.position() < TAG_LENGTH) {
+                throw new EOFException("Truncated at chunk " + index);
+            }
+            writeFully(out, codec.decrypt(index, last, encrypted.flip()));
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    /** Fill {@code buffer} from {@code in}; {@code false} if the input ended first. */
+    static boolean readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Fill {@code buffer} from {@code in} at {@code position}; the file must have that many bytes there. */
+    static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException("File ended at " + offset);
+            }
+            offset += read;
+        }
+    }
+
+    static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += out.write(buffer, offset);
+        }
+    }
+
+    /**
+     * Encrypt {@code source} into {@code target}, chunks in parallel. Each worker reads its chunks with positional
+     * reads into one direct buffer it reuses, so no mapping is set up and torn down per chunk; the target is written
+     * to a temporary file and moved into place once complete.
+     */
+    public void encrypt(Path source, Path target) throws IOException, GeneralSecurityException {
+        Header header = Header.create(engine.mode(), chunkSize);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long length = in.size();
+            long chunkCount = length / chunkSize + 1;
+            writeAtomically(target, out -> {
+                writeFully(out, ByteBuffer.wrap(header.bytes), 0);
+                forEachChunk(header, chunkCount, (codec, index) -> {
+                    long position = index * chunkSize;
+                    int plaintextLength = (int)Math.min(chunkSize, length - position);
+                    ByteBuffer plaintext = codec.input.clear().limit(plaintextLength);
+                    readFully(in, plaintext, position);
+                    ByteBuffer encrypted = codec.encrypt(index, index == chunkCount - 1, plaintext.flip());
+                    writeFully(out, encrypted, HEADER_LENGTH + index * (chunkSize + TAG_LENGTH));
+                });
+            });
+        }
+    }
+
+    /**
+     * Decrypt {@code source}, written by either {@code encrypt} method, into {@code target}, chunks in parallel.
+     * Nothing is left at {@code target} unless every chunk authenticates.
+     */
+    public void decrypt(Path source, Path target) throws IOException, GeneralSecurityException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_LENGTH);
+            if (in.read(headerBuffer, 0) < HEADER_LENGTH) {
+                throw new EOFException("Truncated header");
+            }
+            Header header = Header.parse(headerBuffer.flip());
+            long frameLength = header.chunkSize + TAG_LENGTH;
+            long payloadLength = in.size() - HEADER_LENGTH;
+            long chunkCount = payloadLength / frameLength + 1;
+            long lastFrameLength = payloadLength % frameLength;
+            if (lastFrameLength < TAG_LENGTH) {
+                throw new EOFException("Truncated encrypted file");
+            }
+
+            writeAtomically(target, out -> forEachChunk(header, chunkCount, (codec, index) -> {
+                boolean last = index == chunkCount - 1;
+                long position = HEADER_LENGTH + index * frameLength;
+                ByteBuffer encrypted = codec.input.clear().limit((int)(last ? lastFrameLength : frameLength));
+                readFully(in, encrypted, position);
+                writeFully(out, codec.decrypt(index, last, encrypted.flip()), index * header.chunkSize);
+            }));
+        }
+    }
+
+    interface ChunkTask {
+        void run(ChunkCodec codec, long index) throws Exception;
+    }
+
+    interface FileWriter {
+        void write(FileChannel out) throws Exception;
+    }
+
+    /**
+     * Run {@code task} for chunks {@code 0..chunkCount-1} on up to {@link #parallelism} threads. Each thread claims
+     * the next unprocessed chunk with its own {@link ChunkCodec}, so memory is bounded by the thread count.
+     */
+    void forEachChunk(Header header, long chunkCount, ChunkTask task) throws Exception {
+        AtomicLong nextChunk = new AtomicLong();
+        int workerCount = (int)Math.min(parallelism, chunkCount);
+        List<Future<Void>> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            Callable<Void> worker = () -> {
+                ChunkCodec codec = new ChunkCodec(header);
+                try {
+                    for (long index = nextChunk.getAndIncrement(); index < chunkCount; index = nextChunk.getAndIncrement()) {
+                        task.run(codec, index);
+                    }
+                } catch (Exception e) {
+                    // Stop the other workers from claiming further chunks.
+                    nextChunk.set(chunkCount);
+                    throw e;
+                }
+                return null;
+            };
+            workers.add(EXECUTOR.submit(worker));
+        }
+
+        @Nullable Exception failure = null;
+        for (Future<Void> future : workers) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error)cause;
+                    }
+                    failure = cause instanceof Exception ? (Exception)cause : e;
+                }
+            } catch (InterruptedException e) {
+                nextChunk.set(chunkCount);
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Write through {@code writer} into a temporary file next to {@code target}, then move it into place. */
+    static void writeAtomically(Path target, FileWriter writer) throws IOException, GeneralSecurityException {
+        Path absoluteTarget = target.toAbsolutePath();
+        Path temporary = Files.createTempFile(absoluteTarget.getParent(), "." + absoluteTarget.getFileName(), ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                writer.write(out);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            Files.move(temporary, absoluteTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.HexTool;
+import com.flower.crypt.keys.Aes256KeyContext;
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.KeyProvider;
+import com.flower.crypt.keys.SecureAes256KeyContext;
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.flower.crypt.keys.metrics.MetricsTagged;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/** Headless provider for a hex-encoded AES-256 key and optional IV. */
+public class AesRawKeyEngine extends MetricsTagged implements KeyProvider {
+    volatile AesRawKeySpec spec;
+
+    public AesRawKeyEngine() {
+        this(AesRawKeySpec.EMPTY);
+    }
+
+    public AesRawKeyEngine(AesRawKeySpec spec) {
+        super("AES-256");
+        this.spec = checkNotNull(spec);
+    }
+
+    public AesRawKeySpec getSpec() {
+        return spec;
+    }
+
+    public void setSpec(AesRawKeySpec spec) {
+        this.spec = checkNotNull(spec);
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        long start = Metrics.start();
+        try {
+            AesRawKeySpec spec = this.spec;
+            return Aes256KeyContext.of(parseKey(spec), parseIv(spec));
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_CONTEXT, start);
+        }
+    }
+
+    /** Same key material as {@link #getKeyContext()}, decoded straight into off-heap storage; close it when done. */
+    public SecureAes256KeyContext getSecureKeyContext() {
+        AesRawKeySpec spec = this.spec;
+        return SecureAes256KeyContext.of(parseKey(spec), parseIv(spec));
+    }
+
+    static byte[] parseKey(AesRawKeySpec spec) {
+        return HexTool.hexStringToByteArray(spec.hexKey());
+    }
+
+    @Nullable static byte[] parseIv(AesRawKeySpec spec) {
+        String hexIv = spec.hexIv();
+        return hexIv == null ? null : HexTool.hexStringToByteArray(hexIv);
+    }
+
+    /** Cipher engine for the current key; keep it for as long as the key is in use rather than per message. */
+    public Aes256Engine newAes256Engine(Aes256Engine.Mode mode) {
+        return Aes256Engine.of(getKeyContext(), mode);
+    }
+}
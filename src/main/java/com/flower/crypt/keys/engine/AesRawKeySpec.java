@@ -0,0 +1,42 @@
+package com.flower.crypt.keys.engine;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/** Hex-encoded AES-256 key and optional hex-encoded IV. */
+public final class AesRawKeySpec {
+    public static final AesRawKeySpec EMPTY = new AesRawKeySpec("", null);
+
+    final String hexKey;
+    @Nullable final String hexIv;
+
+    AesRawKeySpec(String hexKey, @Nullable String hexIv) {
+        this.hexKey = hexKey;
+        this.hexIv = hexIv;
+    }
+
+    public static AesRawKeySpec of(String hexKey, @Nullable String hexIv) {
+        return new AesRawKeySpec(hexKey, hexIv);
+    }
+
+    public String hexKey() {
+        return hexKey;
+    }
+
+    @Nullable public String hexIv() {
+        return hexIv;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (!(o instanceof AesRawKeySpec)) { return false; }
+        AesRawKeySpec that = (AesRawKeySpec) o;
+        return hexKey.equals(that.hexKey) && Objects.equals(hexIv, that.hexIv);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hexKey, hexIv);
+    }
+}
@@ -0,0 +1,281 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Headless, parallel version of the Raw tab's "Test keys": loads and checks many certificate/key pairs on a
+ * {@link ForkJoinPool}, with the same encryption and signature round trips as {@code RsaRawKeyProvider.testKeys}.
+ * <p>
+ * Each {@link KeyPairCheck} goes to the listener as soon as it's done, from a worker thread and in no particular
+ * order, so a report can be written while the run is in progress. The returned {@link Summary} has the totals and
+ * the throughput. Cancelling the returned future skips the pairs not yet started.
+ * <pre>
+ * try (BulkKeyPairValidator validator = new BulkKeyPairValidator()) {
+ *     Summary summary = validator.validate(KeyPairSource.directory(dir), BulkKeyPairValidator.csvReport(out)).join();
+ * }
+ * </pre>
+ */
+public class BulkKeyPairValidator implements AutoCloseable {
+    final static Logger LOGGER = LoggerFactory.getLogger(BulkKeyPairValidator.class);
+
+    public static final String CSV_HEADER =
+            "source,status,encryption,signature,keyAlgorithm,keySize,notAfter,expired,subject,error";
+
+    /** Totals of one {@link #validate} run. */
+    public static final class Summary {
+        final long total;
+        final long matched;
+        final long mismatched;
+        final long errors;
+        final long expired;
+        final Duration elapsed;
+
+        Summary(long total, long matched, long mismatched, long errors, long expired, Duration elapsed) {
+            this.total = total;
+            this.matched = matched;
+            this.mismatched = mismatched;
+            this.errors = errors;
+            this.expired = expired;
+            this.elapsed = elapsed;
+        }
+
+        public long total() {
+            return total;
+        }
+
+        public long matched() {
+            return matched;
+        }
+
+        public long mismatched() {
+            return mismatched;
+        }
+
+        public long errors() {
+            return errors;
+        }
+
+        /** Checked pairs whose certificate had expired when the run started, whether or not the key matched. */
+        public long expired() {
+            return expired;
+        }
+
+        public Duration elapsed() {
+            return elapsed;
+        }
+
+        public double pairsPerSecond() {
+            long nanos = elapsed.toNanos();
+            return nanos == 0 ? 0 : total * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d pairs: %d match, %d mismatch, %d error, %d expired in %d ms (%.1f pairs/s)",
+                    total, matched, mismatched, errors, expired, elapsed.toMillis(), pairsPerSecond());
+        }
+    }
+
+    final ForkJoinPool pool;
+    final boolean ownsPool;
+
+    /** One worker per processor. */
+    public BulkKeyPairValidator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BulkKeyPairValidator(int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("key-pair-validator-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.ownsPool = true;
+    }
+
+    /** Run on {@code pool}, which {@link #close()} leaves alone. */
+    public BulkKeyPairValidator(ForkJoinPool pool) {
+        this.pool = checkNotNull(pool);
+        this.ownsPool = false;
+    }
+
+    /** State shared by the tasks of one run. */
+    static final class Run {
+        final Consumer<KeyPairCheck> listener;
+        final CompletableFuture<Summary> result = new CompletableFuture<>();
+        final Instant startedAt = Instant.now();
+        final long startNanos = System.nanoTime();
+        final LongAdder matched = new LongAdder();
+        final LongAdder mismatched = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder expired = new LongAdder();
+
+        Run(Consumer<KeyPairCheck> listener) {
+            this.listener = listener;
+        }
+
+        void record(KeyPairCheck check) {
+            switch (check.status()) {
+                case MATCH: matched.increment(); break;
+                case MISMATCH: mismatched.increment(); break;
+                default: errors.increment(); break;
+            }
+            if (check.isExpiredAt(startedAt)) {
+                expired.increment();
+            }
+            try {
+                listener.accept(check);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Key pair report listener failed on {}", check.source(), e);
+            }
+        }
+
+        Summary summary() {
+            long matched = this.matched.sum();
+            long mismatched = this.mismatched.sum();
+            long errors = this.errors.sum();
+            return new Summary(matched + mismatched + errors, matched, mismatched, errors, expired.sum(),
+                    Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /** Splits the source list in halves down to single pairs; one check is far more work than a fork. */
+    static final class CheckRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final List<? extends KeyPairSource> sources;
+        final int from;
+        final int to;
+        final Run run;
+
+        CheckRange(List<? extends KeyPairSource> sources, int from, int to, Run run) {
+            this.sources = sources;
+            this.from = from;
+            this.to = to;
+            this.run = run;
+        }
+
+        @Override
+        protected void compute() {
+            if (run.result.isDone()) {
+                return;
+            }
+            if (to - from == 1) {
+                run.record(check(sources.get(from)));
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CheckRange(sources, from, middle, run), new CheckRange(sources, middle, to, run));
+            }
+        }
+    }
+
+    /** Check every pair in {@code sources}, reporting each result to {@code listener} as it completes. */
+    public CompletableFuture<Summary> validate(List<? extends KeyPairSource> sources, Consumer<KeyPairCheck> listener) {
+        List<? extends KeyPairSource> snapshot = List.copyOf(sources);
+        Run run = new Run(checkNotNull(listener));
+        pool.execute(() -> {
+            try {
+                new CheckRange(snapshot, 0, snapshot.size(), run).invoke();
+                run.result.complete(run.summary());
+            } catch (Throwable t) {
+                run.result.completeExceptionally(t);
+            }
+        });
+        return run.result;
+    }
+
+    /** Load and check a single pair on the calling thread. */
+    public static KeyPairCheck check(KeyPairSource source) {
+        long start = System.nanoTime();
+        try {
+            Certificate certificate = source.certificate();
+            PrivateKey key = source.privateKey();
+            PublicKey publicKey = certificate.getPublicKey();
+            boolean encryptionMatch = PkiUtil.testKeyPairMatchByEncrypting(publicKey, key);
+            boolean signatureMatch = PkiUtil.testKeyPairMatchBySigning(publicKey, key);
+
+            String subject = null;
+            Instant notAfter = null;
+            if (certificate instanceof X509Certificate) {
+                X509Certificate x509Certificate = (X509Certificate) certificate;
+                subject = x509Certificate.getSubjectX500Principal().getName();
+                notAfter = x509Certificate.getNotAfter().toInstant();
+            }
+            KeyPairCheck.Status status = encryptionMatch && signatureMatch
+                    ? KeyPairCheck.Status.MATCH : KeyPairCheck.Status.MISMATCH;
+            return new KeyPairCheck(source.name(), status, encryptionMatch, signatureMatch, subject, notAfter,
+                    publicKey.getAlgorithm(), KeyPairCheck.keySize(publicKey), null, System.nanoTime() - start);
+        } catch (Exception e) {
+            return KeyPairCheck.error(source.name(), e, System.nanoTime() - start);
+        }
+    }
+
+    /** Listener writing one CSV line per result to {@code out}, after a {@link #CSV_HEADER} line written right away. */
+    public static Consumer<KeyPairCheck> csvReport(Appendable out) {
+        Instant now = Instant.now();
+        synchronized (out) {
+            append(out, CSV_HEADER + System.lineSeparator());
+        }
+        return check -> {
+            String line = String.join(",", csv(check.source()), check.status().name(),
+                    Boolean.toString(check.encryptionMatch()), Boolean.toString(check.signatureMatch()),
+                    csv(check.keyAlgorithm()), Integer.toString(check.keySize()),
+                    csv(check.notAfter() == null ? null : check.notAfter().toString()),
+                    Boolean.toString(check.isExpiredAt(now)), csv(check.subject()), csv(check.error()));
+            synchronized (out) {
+                append(out, line + System.lineSeparator());
+            }
+        };
+    }
+
+    static void append(Appendable out, String text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String csv(@Nullable String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /** Shut down the worker pool if this validator created it. */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+}
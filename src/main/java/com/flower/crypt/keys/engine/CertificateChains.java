@@ -0,0 +1,114 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reading and ordering certificate chains and CA bundles: PEM files with any number of certificates, with or
+ * without text between them, or DER/PKCS#7.
+ */
+public final class CertificateChains {
+    final static Logger LOGGER = LoggerFactory.getLogger(CertificateChains.class);
+
+    static final String KEY_ALIAS = "key";
+    static final char[] KEY_STORE_PASSWORD = new char[0];
+
+    private CertificateChains() {
+    }
+
+    /** Every certificate in {@code stream}, in file order. */
+    public static List<X509Certificate> parse(InputStream stream) throws CertificateException {
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(stream)) {
+            certificates.add((X509Certificate)certificate);
+        }
+        if (certificates.isEmpty()) {
+            throw new CertificateException("No certificates found");
+        }
+        return certificates;
+    }
+
+    public static List<X509Certificate> parse(String pem) throws CertificateException {
+        return parse(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    public static List<X509Certificate> read(Path file) throws IOException, CertificateException {
+        return parse(new ByteArrayInputStream(Files.readAllBytes(file)));
+    }
+
+    /** {@link #parse} and {@link #order} in one step: the chain in a PEM text, leaf first. */
+    public static List<X509Certificate> parseChain(String pem) throws CertificateException {
+        return order(parse(pem));
+    }
+
+    public static List<X509Certificate> readChain(Path file) throws IOException, CertificateException {
+        return order(read(file));
+    }
+
+    /**
+     * Put {@code certificates} in chain order: the leaf - the first certificate that issued none of the others -
+     * followed by its issuer, that one's issuer and so on. Certificates that aren't part of the leaf's chain are
+     * dropped, so a bundle listed in any order yields the chain a TLS peer expects.
+     */
+    public static List<X509Certificate> order(List<X509Certificate> certificates) {
+        if (certificates.size() <= 1) {
+            return List.copyOf(certificates);
+        }
+        CertificateIndex index = CertificateIndex.of(certificates);
+        Set<X509Certificate> issuers = new HashSet<>();
+        for (X509Certificate certificate : index.certificates()) {
+            X509Certificate issuer = index.issuer(certificate);
+            if (issuer != null && !issuer.equals(certificate)) {
+                issuers.add(issuer);
+            }
+        }
+        X509Certificate leaf = index.certificates().stream()
+                .filter(certificate -> !issuers.contains(certificate))
+                .findFirst()
+                .orElse(index.certificates().get(0));
+
+        List<X509Certificate> chain = new ArrayList<>();
+        Set<X509Certificate> seen = new HashSet<>();
+        for (X509Certificate certificate = leaf; certificate != null && seen.add(certificate);
+             certificate = index.issuer(certificate)) {
+            chain.add(certificate);
+        }
+        if (chain.size() < index.size()) {
+            LOGGER.warn("Left {} certificate(s) out of the chain of {}: not issuers of it",
+                    index.size() - chain.size(), leaf.getSubjectX500Principal());
+        }
+        return List.copyOf(chain);
+    }
+
+    /** Key manager factory serving {@code key} with the whole {@code chain}, leaf first, in the handshake. */
+    public static KeyManagerFactory keyManagerFactory(List<X509Certificate> chain, PrivateKey key) throws Exception {
+        if (chain.size() == 1) {
+            return PkiUtil.getKeyManagerFromCertAndPrivateKey(chain.get(0), key);
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(KEY_ALIAS, key, KEY_STORE_PASSWORD, chain.toArray(new X509Certificate[0]));
+        KeyManagerFactory factory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        factory.init(keyStore, KEY_STORE_PASSWORD);
+        return factory;
+    }
+}
@@ -0,0 +1,153 @@
+package com.flower.crypt.keys.engine;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.io.BaseEncoding;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.security.auth.x500.X500Principal;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Certificates indexed by subject and by subject key identifier, built once in a single pass.
+ * Finding the issuer of a certificate is a hash lookup on its authority key identifier (its issuer name if it has
+ * none), however many certificates the index holds - CA bundles with thousands of roots included.
+ */
+public final class CertificateIndex {
+    final static Logger LOGGER = LoggerFactory.getLogger(CertificateIndex.class);
+
+    static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+    static final String AUTHORITY_KEY_IDENTIFIER = "2.5.29.35";
+
+    final ImmutableList<X509Certificate> certificates;
+    final ImmutableListMultimap<X500Principal, X509Certificate> bySubject;
+    /** Keyed by the hex encoded subject key identifier. */
+    final ImmutableListMultimap<String, X509Certificate> byKeyIdentifier;
+
+    CertificateIndex(Collection<? extends X509Certificate> certificates) {
+        this.certificates = ImmutableList.copyOf(new LinkedHashSet<>(certificates));
+        ImmutableListMultimap.Builder<X500Principal, X509Certificate> bySubject = ImmutableListMultimap.builder();
+        ImmutableListMultimap.Builder<String, X509Certificate> byKeyIdentifier = ImmutableListMultimap.builder();
+        for (X509Certificate certificate : this.certificates) {
+            bySubject.put(certificate.getSubjectX500Principal(), certificate);
+            String keyIdentifier = subjectKeyIdentifier(certificate);
+            if (keyIdentifier != null) {
+                byKeyIdentifier.put(keyIdentifier, certificate);
+            }
+        }
+        this.bySubject = bySubject.build();
+        this.byKeyIdentifier = byKeyIdentifier.build();
+    }
+
+    /** Index of {@code certificates}; duplicates are kept once, the first occurrence wins the order. */
+    public static CertificateIndex of(Collection<? extends X509Certificate> certificates) {
+        return new CertificateIndex(certificates);
+    }
+
+    public List<X509Certificate> certificates() {
+        return certificates;
+    }
+
+    public int size() {
+        return certificates.size();
+    }
+
+    public boolean contains(X509Certificate certificate) {
+        return bySubject.get(certificate.getSubjectX500Principal()).contains(certificate);
+    }
+
+    public List<X509Certificate> bySubject(X500Principal subject) {
+        return bySubject.get(subject);
+    }
+
+    /** Certificates with this subject key identifier, hex encoded in lower case. */
+    public List<X509Certificate> byKeyIdentifier(String keyIdentifier) {
+        return byKeyIdentifier.get(keyIdentifier);
+    }
+
+    /**
+     * Candidate issuers of {@code certificate}: those with its authority key identifier and issuer name, or with its
+     * issuer name only if it carries no key identifier or none matches.
+     */
+    public List<X509Certificate> issuers(X509Certificate certificate) {
+        X500Principal issuerName = certificate.getIssuerX500Principal();
+        String keyIdentifier = authorityKeyIdentifier(certificate);
+        if (keyIdentifier != null) {
+            List<X509Certificate> byKey = byKeyIdentifier.get(keyIdentifier).stream()
+                    .filter(issuer -> issuer.getSubjectX500Principal().equals(issuerName))
+                    .toList();
+            if (!byKey.isEmpty()) {
+                return byKey;
+            }
+        }
+        return bySubject.get(issuerName);
+    }
+
+    /**
+     * The certificate in this index that signed {@code certificate}, {@code null} if none did. When several
+     * candidates share the issuer name and key identifier (e.g. a re-issued CA), the one whose key verifies the
+     * signature is returned.
+     */
+    @Nullable public X509Certificate issuer(X509Certificate certificate) {
+        List<X509Certificate> candidates = issuers(certificate);
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        for (X509Certificate candidate : candidates) {
+            if (isSignedBy(certificate, candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    static boolean isSignedBy(X509Certificate certificate, X509Certificate issuer) {
+        try {
+            certificate.verify(issuer.getPublicKey());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Nullable static String subjectKeyIdentifier(X509Certificate certificate) {
+        byte[] extension = certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER);
+        if (extension == null) {
+            return null;
+        }
+        try {
+            return hex(SubjectKeyIdentifier.getInstance(ASN1OctetString.getInstance(extension).getOctets())
+                    .getKeyIdentifier());
+        } catch (RuntimeException e) {
+            LOGGER.debug("Unreadable subject key identifier in {}", certificate.getSubjectX500Principal(), e);
+            return null;
+        }
+    }
+
+    @Nullable static String authorityKeyIdentifier(X509Certificate certificate) {
+        byte[] extension = certificate.getExtensionValue(AUTHORITY_KEY_IDENTIFIER);
+        if (extension == null) {
+            return null;
+        }
+        try {
+            byte[] keyIdentifier = AuthorityKeyIdentifier.getInstance(ASN1OctetString.getInstance(extension).getOctets())
+                    .getKeyIdentifierOctets();
+            return keyIdentifier == null ? null : hex(keyIdentifier);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Unreadable authority key identifier in {}", certificate.getSubjectX500Principal(), e);
+            return null;
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        return BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+}
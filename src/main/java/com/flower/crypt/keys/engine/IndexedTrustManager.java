@@ -0,0 +1,240 @@
+package com.flower.crypt.keys.engine;
+
+import com.google.common.net.InetAddresses;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Trust manager over a {@link CertificateIndex} of CA certificates. The trust anchor for a peer's chain is found by
+ * index lookups while walking up the chain, and the path below it is then checked by the JDK's PKIX validator
+ * against that one anchor - validation cost doesn't grow with the size of the bundle.
+ * <p>
+ * Like the JDK default trust manager, revocation isn't checked, and the leaf has to be fit for its side of the
+ * handshake: its extended key usage, if any, must allow server or client authentication, and its key usage, if any,
+ * what the {@code authType} needs. Server chains are checked against the peer's hostname when the connection asks
+ * for {@code HTTPS} or {@code LDAPS} endpoint identification.
+ */
+public class IndexedTrustManager extends X509ExtendedTrustManager {
+    static final int IP_ADDRESS = 7;
+
+    static final String SERVER_AUTH = "1.3.6.1.5.5.7.3.1";
+    static final String CLIENT_AUTH = "1.3.6.1.5.5.7.3.2";
+    static final String ANY_EXTENDED_KEY_USAGE = "2.5.29.37.0";
+
+    static final int DIGITAL_SIGNATURE = 0;
+    static final int KEY_ENCIPHERMENT = 2;
+    static final int KEY_AGREEMENT = 4;
+
+    final CertificateIndex anchors;
+
+    public IndexedTrustManager(CertificateIndex anchors) {
+        this.anchors = checkNotNull(anchors);
+    }
+
+    public CertificateIndex anchors() {
+        return anchors;
+    }
+
+    /** Validate {@code chain}, leaf first, against the anchors; the order the peer sent it in. */
+    public void checkTrusted(@Nullable X509Certificate[] chain) throws CertificateException {
+        if (chain == null || chain.length == 0) {
+            throw new CertificateException("Empty certificate chain");
+        }
+        for (int i = 0; i < chain.length; i++) {
+            if (anchors.contains(chain[i])) {
+                validate(Arrays.asList(chain).subList(0, i), chain[i]);
+                return;
+            }
+            X509Certificate anchor = anchors.issuer(chain[i]);
+            if (anchor != null) {
+                validate(Arrays.asList(chain).subList(0, i + 1), anchor);
+                return;
+            }
+        }
+        throw new CertificateException("No trusted issuer for " + chain[0].getSubjectX500Principal()
+                + ", chain ends at " + chain[chain.length - 1].getIssuerX500Principal());
+    }
+
+    static void validate(List<X509Certificate> path, X509Certificate anchor) throws CertificateException {
+        if (path.isEmpty()) {
+            anchor.checkValidity();
+            return;
+        }
+        try {
+            PKIXParameters parameters = new PKIXParameters(Set.of(new TrustAnchor(anchor, null)));
+            parameters.setRevocationEnabled(false);
+            CertPathValidator.getInstance("PKIX").validate(
+                    CertificateFactory.getInstance("X.509").generateCertPath(path), parameters);
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("Untrusted chain for " + path.get(0).getSubjectX500Principal()
+                    + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** Chain trust plus the leaf's fitness for a server identity with this {@code authType}. */
+    public void checkServer(X509Certificate[] chain, String authType) throws CertificateException {
+        checkTrusted(chain);
+        checkUsage(chain[0], SERVER_AUTH, serverKeyUsage(authType));
+    }
+
+    /** Chain trust plus the leaf's fitness for a client identity; clients always sign. */
+    public void checkClient(X509Certificate[] chain, String authType) throws CertificateException {
+        checkTrusted(chain);
+        checkUsage(chain[0], CLIENT_AUTH, DIGITAL_SIGNATURE);
+    }
+
+    /**
+     * The key usage bit a server certificate needs: key encipherment for RSA key exchange, key agreement for
+     * static ECDH and DH, a signature for everything else - ephemeral key exchanges and TLS 1.3 included.
+     */
+    static int serverKeyUsage(String authType) {
+        String keyExchange = authType.toUpperCase(Locale.ROOT);
+        if (keyExchange.equals("RSA") || keyExchange.equals("RSA_EXPORT")) {
+            return KEY_ENCIPHERMENT;
+        }
+        if (keyExchange.startsWith("ECDH_") || keyExchange.startsWith("DH_")) {
+            return KEY_AGREEMENT;
+        }
+        return DIGITAL_SIGNATURE;
+    }
+
+    static void checkUsage(X509Certificate leaf, String extendedKeyUsage, int keyUsageBit) throws CertificateException {
+        List<String> extendedKeyUsages = leaf.getExtendedKeyUsage();
+        if (extendedKeyUsages != null && !extendedKeyUsages.contains(extendedKeyUsage)
+                && !extendedKeyUsages.contains(ANY_EXTENDED_KEY_USAGE)) {
+            throw new CertificateException("Extended key usage of " + leaf.getSubjectX500Principal()
+                    + " doesn't allow " + (SERVER_AUTH.equals(extendedKeyUsage) ? "server" : "client") + " authentication");
+        }
+        boolean[] keyUsage = leaf.getKeyUsage();
+        if (keyUsage != null && (keyUsage.length <= keyUsageBit || !keyUsage[keyUsageBit])) {
+            throw new CertificateException("Key usage of " + leaf.getSubjectX500Principal() + " doesn't allow "
+                    + (keyUsageBit == KEY_ENCIPHERMENT ? "key encipherment"
+                            : keyUsageBit == KEY_AGREEMENT ? "key agreement" : "digital signatures"));
+        }
+    }
+
+    static void checkEndpoint(X509Certificate[] chain, @Nullable SSLParameters parameters, @Nullable String peerHost)
+            throws CertificateException {
+        String algorithm = parameters == null ? null : parameters.getEndpointIdentificationAlgorithm();
+        if (algorithm == null || algorithm.isEmpty()) {
+            return;
+        }
+        if (!"HTTPS".equalsIgnoreCase(algorithm) && !"LDAPS".equalsIgnoreCase(algorithm)) {
+            throw new CertificateException("Unsupported endpoint identification algorithm " + algorithm);
+        }
+        if (peerHost == null || !matchesHost(chain[0], peerHost)) {
+            throw new CertificateException("Certificate " + chain[0].getSubjectX500Principal()
+                    + " doesn't match host " + peerHost);
+        }
+    }
+
+    /**
+     * DNS names with single-label {@code *.} wildcards as in {@link SniKeyManager}; IP addresses by value, so
+     * {@code ::1} and {@code 0:0:0:0:0:0:0:1} match.
+     */
+    static boolean matchesHost(X509Certificate certificate, String peerHost) {
+        String host = SniKeyManager.normalize(peerHost);
+        InetAddress address = ipAddress(host);
+        if (address != null) {
+            return ipAddresses(certificate).contains(address);
+        }
+        int dot = host.indexOf('.');
+        for (String name : SniKeyManager.hostnames(certificate)) {
+            if (name.equals(host) || (dot > 0 && name.startsWith("*.") && name.substring(2).equals(host.substring(dot + 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** The address an IP literal, bracketed or not, stands for; {@code null} for host names. Never resolves. */
+    @Nullable static InetAddress ipAddress(String host) {
+        String literal = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+        return InetAddresses.isInetAddress(literal) ? InetAddresses.forString(literal) : null;
+    }
+
+    static List<InetAddress> ipAddresses(X509Certificate certificate) {
+        try {
+            Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+            if (alternativeNames == null) {
+                return List.of();
+            }
+            return alternativeNames.stream()
+                    .filter(name -> name.size() >= 2 && Integer.valueOf(IP_ADDRESS).equals(name.get(0)))
+                    .map(name -> ipAddress(String.valueOf(name.get(1))))
+                    .filter(Objects::nonNull)
+                    .toList();
+        } catch (CertificateException e) {
+            return List.of();
+        }
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        checkClient(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        checkServer(chain, authType);
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, @Nullable Socket socket)
+            throws CertificateException {
+        checkClient(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, @Nullable Socket socket)
+            throws CertificateException {
+        checkServer(chain, authType);
+        if (socket instanceof SSLSocket) {
+            SSLSocket sslSocket = (SSLSocket) socket;
+            SSLSession session = sslSocket.getHandshakeSession();
+            checkEndpoint(chain, sslSocket.getSSLParameters(), session == null ? null : session.getPeerHost());
+        }
+    }
+
+    @Override
+    public void checkClientTrusted(X509Certificate[] chain, String authType, @Nullable SSLEngine engine)
+            throws CertificateException {
+        checkClient(chain, authType);
+    }
+
+    @Override
+    public void checkServerTrusted(X509Certificate[] chain, String authType, @Nullable SSLEngine engine)
+            throws CertificateException {
+        checkServer(chain, authType);
+        if (engine != null) {
+            checkEndpoint(chain, engine.getSSLParameters(), engine.getPeerHost());
+        }
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return anchors.certificates().toArray(new X509Certificate[0]);
+    }
+}
@@ -0,0 +1,142 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches the certificate and key files of a {@link RsaFileKeyEngine} and reloads the engine when either changes,
+ * e.g. after a cert-manager rotation. Reloads run on the watcher's own thread: the new pair is parsed, validated and
+ * its {@link javax.net.ssl.KeyManagerFactory} built before the engine switches to it, so handshakes in flight keep
+ * the old material and new ones never wait. A bad rotation (unreadable file, key/cert mismatch) is logged and the
+ * current pair stays in place.
+ */
+public class KeyFileWatcher implements AutoCloseable {
+    final static Logger LOGGER = LoggerFactory.getLogger(KeyFileWatcher.class);
+
+    /** Rotations usually write both files in quick succession; wait this long for the second write. */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+
+    protected final RsaFileKeyEngine engine;
+    protected final RsaFileKeySpec spec;
+    protected final long debounceMillis;
+    final Set<Path> watchedNames;
+    final WatchService watchService;
+    final Thread watchThread;
+
+    final LongAdder reloads = new LongAdder();
+    final LongAdder failedReloads = new LongAdder();
+
+    KeyFileWatcher(RsaFileKeyEngine engine, RsaFileKeySpec spec, long debounceMillis) throws IOException {
+        this.engine = engine;
+        this.spec = spec;
+        this.debounceMillis = debounceMillis;
+
+        Path certificatePath = spec.certificateFile().getAbsoluteFile().toPath();
+        Path keyPath = spec.privateKeyFile().getAbsoluteFile().toPath();
+        watchedNames = Set.of(certificatePath.getFileName(), keyPath.getFileName());
+
+        Set<Path> directories = new LinkedHashSet<>();
+        directories.add(certificatePath.getParent());
+        directories.add(keyPath.getParent());
+
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path directory : directories) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        watchThread = new ThreadFactoryBuilder().setNameFormat("key-file-watcher-%d").setDaemon(true).build()
+                .newThread(this::watch);
+    }
+
+    /** Start watching {@code spec}'s files and reloading {@code engine} from them. */
+    public static KeyFileWatcher start(RsaFileKeyEngine engine, RsaFileKeySpec spec) throws IOException {
+        return start(engine, spec, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    public static KeyFileWatcher start(RsaFileKeyEngine engine, RsaFileKeySpec spec, long debounceMillis)
+            throws IOException {
+        KeyFileWatcher watcher = new KeyFileWatcher(engine, spec, debounceMillis);
+        watcher.watchThread.start();
+        return watcher;
+    }
+
+    void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = drain(key);
+                if (!changed) {
+                    continue;
+                }
+                // Coalesce the burst of events a rotation produces into a single reload.
+                WatchKey next;
+                while ((next = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    drain(next);
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.debug("Key file watcher stopped");
+        }
+    }
+
+    /** Consume a key's events; returns whether any of them may have touched the watched files. */
+    boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            } else if (event.context() instanceof Path) {
+                Path name = (Path) event.context();
+                // Kubernetes secret volumes rotate by swapping the "..data" symlink, not the files themselves.
+                changed |= watchedNames.contains(name) || name.toString().startsWith("..");
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /** Reload now, regardless of file events. */
+    public void reload() {
+        try {
+            engine.reload(spec);
+            reloads.increment();
+            Metrics.increment(engine.getMetricsTag(), KeyMetrics.Counter.FILE_RELOAD);
+            LOGGER.info("Reloaded key material from {} and {}", spec.certificateFile(), spec.privateKeyFile());
+        } catch (Exception e) {
+            failedReloads.increment();
+            Metrics.increment(engine.getMetricsTag(), KeyMetrics.Counter.FILE_RELOAD_FAILURE);
+            LOGGER.warn("Key material reload failed, keeping the current certificate and key", e);
+        }
+    }
+
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    public long getFailedReloadCount() {
+        return failedReloads.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watchThread.interrupt();
+    }
+}
@@ -0,0 +1,56 @@
+package com.flower.crypt.keys.engine;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.List;
+
+/** SHA-256 fingerprints of key material, used as cache keys instead of comparing PEM text or key objects. */
+public final class KeyFingerprint {
+    private KeyFingerprint() {
+    }
+
+    /**
+     * Fingerprint of a certificate and private key pair.
+     * @throws IllegalArgumentException if the key can't be exported (e.g. it lives on a PKCS#11 token)
+     */
+    public static String sha256(Certificate certificate, PrivateKey key) {
+        return sha256(List.of(certificate), key);
+    }
+
+    /** Fingerprint of a certificate chain and its private key; for a single certificate the same as the pair's. */
+    public static String sha256(List<? extends Certificate> chain, PrivateKey key) {
+        byte[] encodedKey = key.getEncoded();
+        if (encodedKey == null) {
+            throw new IllegalArgumentException("Private key is not extractable: " + key.getAlgorithm());
+        }
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Certificate certificate : chain) {
+            putPrefixed(hasher, encoded(certificate));
+        }
+        putPrefixed(hasher, encodedKey);
+        return hasher.hash().toString();
+    }
+
+    /** Fingerprint of a single certificate, hex encoded. */
+    public static String sha256(Certificate certificate) {
+        return Hashing.sha256().hashBytes(encoded(certificate)).toString();
+    }
+
+    static byte[] encoded(Certificate certificate) {
+        try {
+            return certificate.getEncoded();
+        } catch (CertificateEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /** Length-prefix each part so two different pairs can't produce the same byte stream. */
+    static void putPrefixed(Hasher hasher, byte[] bytes) {
+        hasher.putInt(bytes.length);
+        hasher.putBytes(bytes);
+    }
+}
@@ -0,0 +1,42 @@
+package com.flower.crypt.keys.engine;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.KeyManagerFactorySpi;
+import javax.net.ssl.ManagerFactoryParameters;
+import java.security.KeyStore;
+
+/** Adapts hand-written {@link KeyManager}s to the {@link KeyManagerFactory} type {@code RsaKeyProvider} returns. */
+public final class KeyManagerFactories {
+    public static final String ALGORITHM = "FlowerFixed";
+
+    private KeyManagerFactories() {
+    }
+
+    /** A factory that is already initialized and always returns {@code keyManagers}; {@code init} is a no-op. */
+    public static KeyManagerFactory of(KeyManager... keyManagers) {
+        KeyManager[] managers = keyManagers.clone();
+        return new KeyManagerFactory(new FixedKeyManagerFactorySpi(managers), null, ALGORITHM) { };
+    }
+
+    static final class FixedKeyManagerFactorySpi extends KeyManagerFactorySpi {
+        final KeyManager[] keyManagers;
+
+        FixedKeyManagerFactorySpi(KeyManager[] keyManagers) {
+            this.keyManagers = keyManagers;
+        }
+
+        @Override
+        protected void engineInit(KeyStore ks, char[] password) {
+        }
+
+        @Override
+        protected void engineInit(ManagerFactoryParameters spec) {
+        }
+
+        @Override
+        protected KeyManager[] engineGetKeyManagers() {
+            return keyManagers.clone();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.net.ssl.KeyManagerFactory;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Process-wide cache of {@link KeyManagerFactory} instances keyed by a SHA-256 fingerprint of the key material
+ * (see {@link KeyFingerprint}). Switching back and forth between identities is a hash lookup instead of a
+ * KeyStore build. Entries are evicted by size and after being idle for the configured time.
+ */
+public class KeyManagerFactoryCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 256;
+    public static final Duration DEFAULT_EXPIRE_AFTER_ACCESS = Duration.ofHours(1);
+
+    static volatile KeyManagerFactoryCache shared = new KeyManagerFactoryCache(DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_AFTER_ACCESS);
+
+    /** The cache used by the engines in this package. */
+    public static KeyManagerFactoryCache shared() {
+        return shared;
+    }
+
+    /** Replace the shared cache with a differently sized one; existing entries are dropped. */
+    public static void configureShared(long maximumSize, Duration expireAfterAccess) {
+        KeyManagerFactoryCache old = shared;
+        shared = new KeyManagerFactoryCache(maximumSize, expireAfterAccess);
+        old.invalidateAll();
+    }
+
+    final Cache<String, KeyManagerFactory> cache;
+
+    public KeyManagerFactoryCache(long maximumSize, Duration expireAfterAccess) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(checkNotNull(expireAfterAccess))
+                .recordStats()
+                .build();
+    }
+
+    /** Return the factory for the given pair, building it with {@link PkiUtil} on a miss. */
+    public KeyManagerFactory get(X509Certificate certificate, PrivateKey key) {
+        return get(KeyFingerprint.sha256(certificate, key), certificate, key);
+    }
+
+    /** Same as {@link #get(X509Certificate, PrivateKey)} for callers that already hold the pair's fingerprint. */
+    public KeyManagerFactory get(String fingerprint, X509Certificate certificate, PrivateKey key) {
+        return get(Metrics.UNTAGGED, fingerprint, certificate, key);
+    }
+
+    /** Same as {@link #get(String, X509Certificate, PrivateKey)}, counting the hit or miss for {@code provider}. */
+    public KeyManagerFactory get(String provider, String fingerprint, X509Certificate certificate, PrivateKey key) {
+        return get(provider, fingerprint, () -> PkiUtil.getKeyManagerFromCertAndPrivateKey(certificate, key));
+    }
+
+    /**
+     * Same as {@link #get(String, String, X509Certificate, PrivateKey)} for a whole chain, leaf first, so that
+     * intermediates are sent in the handshake; {@code fingerprint} must cover the chain, see {@link KeyFingerprint}.
+     */
+    public KeyManagerFactory get(String provider, String fingerprint, List<X509Certificate> chain, PrivateKey key) {
+        return get(provider, fingerprint, () -> CertificateChains.keyManagerFactory(chain, key));
+    }
+
+    /**
+     * Return the factory cached under {@code fingerprint}, building it on a miss.
+     * Concurrent misses on the same fingerprint wait for a single build (see {@link #contendedMissCount()}).
+     */
+    public KeyManagerFactory get(String fingerprint, Callable<KeyManagerFactory> builder) {
+        return get(Metrics.UNTAGGED, fingerprint, builder);
+    }
+
+    /**
+     * Same as {@link #get(String, Callable)}, counting a {@link KeyMetrics.Counter#CACHE_MISS} for {@code provider}
+     * if this call built the factory and a {@link KeyMetrics.Counter#CACHE_HIT} otherwise.
+     */
+    public KeyManagerFactory get(String provider, String fingerprint, Callable<KeyManagerFactory> builder) {
+        CountingBuilder countingBuilder = new CountingBuilder(builder);
+        try {
+            return cache.get(fingerprint, countingBuilder);
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            Metrics.increment(provider,
+                    countingBuilder.built ? KeyMetrics.Counter.CACHE_MISS : KeyMetrics.Counter.CACHE_HIT);
+        }
+    }
+
+    /** Notes whether the cache called it; Guava runs the loader on the calling thread, so no synchronization is needed. */
+    static final class CountingBuilder implements Callable<KeyManagerFactory> {
+        final Callable<KeyManagerFactory> builder;
+        boolean built;
+
+        CountingBuilder(Callable<KeyManagerFactory> builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public KeyManagerFactory call() throws Exception {
+            built = true;
+            return builder.call();
+        }
+    }
+
+    public void invalidate(String fingerprint) {
+        cache.invalidate(fingerprint);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Lookups that missed while another thread was already building the same entry and waited for that build.
+     * Each such wait counts as a miss without a load, so this is {@code missCount - loadCount}.
+     */
+    public long contendedMissCount() {
+        CacheStats stats = cache.stats();
+        return Math.max(0, stats.missCount() - stats.loadCount());
+    }
+
+    /** Hit/miss counts, eviction count and total/average build time. */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
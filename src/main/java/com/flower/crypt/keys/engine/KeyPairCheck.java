@@ -0,0 +1,117 @@
+package com.flower.crypt.keys.engine;
+
+import javax.annotation.Nullable;
+import java.security.Key;
+import java.security.interfaces.DSAKey;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.time.Instant;
+
+/** Result of checking one {@link KeyPairSource}: whether key and certificate match, and until when it is valid. */
+public final class KeyPairCheck {
+    public enum Status {
+        /** Both the encryption and the signature round trip succeeded. */
+        MATCH,
+        MISMATCH,
+        /** The pair couldn't be loaded or tested; see {@link #error()}. */
+        ERROR
+    }
+
+    final String source;
+    final Status status;
+    final boolean encryptionMatch;
+    final boolean signatureMatch;
+    @Nullable final String subject;
+    @Nullable final Instant notAfter;
+    @Nullable final String keyAlgorithm;
+    final int keySize;
+    @Nullable final String error;
+    final long elapsedNanos;
+
+    KeyPairCheck(String source, Status status, boolean encryptionMatch, boolean signatureMatch,
+                 @Nullable String subject, @Nullable Instant notAfter, @Nullable String keyAlgorithm, int keySize,
+                 @Nullable String error, long elapsedNanos) {
+        this.source = source;
+        this.status = status;
+        this.encryptionMatch = encryptionMatch;
+        this.signatureMatch = signatureMatch;
+        this.subject = subject;
+        this.notAfter = notAfter;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keySize = keySize;
+        this.error = error;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    static KeyPairCheck error(String source, Throwable error, long elapsedNanos) {
+        String message = error.getMessage() != null ? error.getMessage() : error.toString();
+        return new KeyPairCheck(source, Status.ERROR, false, false, null, null, null, -1, message, elapsedNanos);
+    }
+
+    /** Key size in bits: the modulus for RSA and DSA, the group order for EC; -1 if unknown. */
+    static int keySize(Key key) {
+        if (key instanceof RSAKey) {
+            return ((RSAKey) key).getModulus().bitLength();
+        }
+        if (key instanceof ECKey) {
+            return ((ECKey) key).getParams().getOrder().bitLength();
+        }
+        if (key instanceof DSAKey) {
+            return ((DSAKey) key).getParams().getP().bitLength();
+        }
+        return -1;
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public boolean encryptionMatch() {
+        return encryptionMatch;
+    }
+
+    public boolean signatureMatch() {
+        return signatureMatch;
+    }
+
+    @Nullable public String subject() {
+        return subject;
+    }
+
+    /** End of the certificate's validity; {@code null} if it couldn't be loaded or isn't an X.509 certificate. */
+    @Nullable public Instant notAfter() {
+        return notAfter;
+    }
+
+    public boolean isExpiredAt(Instant instant) {
+        Instant notAfter = this.notAfter;
+        return notAfter != null && notAfter.isBefore(instant);
+    }
+
+    @Nullable public String keyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public int keySize() {
+        return keySize;
+    }
+
+    @Nullable public String error() {
+        return error;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return source + ": " + status
+                + (status == Status.ERROR ? " (" + error + ")"
+                        : ", " + keyAlgorithm + " " + keySize + ", " + subject + ", valid until " + notAfter);
+    }
+}
@@ -0,0 +1,149 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A certificate and private key to check with {@link BulkKeyPairValidator}. Loading happens in {@link #certificate()}
+ * and {@link #privateKey()}, on the validator's worker threads, so listing thousands of sources is cheap.
+ */
+public interface KeyPairSource {
+    /** Shown in the report, e.g. the file or token alias the pair came from. */
+    String name();
+
+    Certificate certificate() throws Exception;
+
+    PrivateKey privateKey() throws Exception;
+
+    static KeyPairSource of(String name, Certificate certificate, PrivateKey key) {
+        return new KeyPairSource() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public Certificate certificate() {
+                return certificate;
+            }
+
+            @Override
+            public PrivateKey privateKey() {
+                return key;
+            }
+        };
+    }
+
+    static KeyPairSource files(RsaFileKeySpec spec) {
+        return new KeyPairSource() {
+            @Override
+            public String name() {
+                return spec.certificateFile().getPath();
+            }
+
+            @Override
+            public Certificate certificate() throws Exception {
+                return RsaFileKeyEngine.readCertificate(spec.certificateFile());
+            }
+
+            @Override
+            public PrivateKey privateKey() throws Exception {
+                return RsaFileKeyEngine.readPrivateKey(spec.privateKeyFile());
+            }
+        };
+    }
+
+    static KeyPairSource raw(String name, RsaRawKeySpec spec) {
+        return new KeyPairSource() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public Certificate certificate() throws Exception {
+                return PkiUtil.getCertificateFromString(spec.certificate());
+            }
+
+            @Override
+            public PrivateKey privateKey() throws Exception {
+                return PkiUtil.getPrivateKeyFromString(spec.privateKey());
+            }
+        };
+    }
+
+    /**
+     * One source per {@code <name>.crt} in {@code directory} that has a {@code <name>.key} next to it.
+     * Only the directory listing is read here; the files themselves are read during validation.
+     */
+    static List<KeyPairSource> directory(Path directory) throws IOException {
+        List<KeyPairSource> sources = new ArrayList<>();
+        try (DirectoryStream<Path> certificates = Files.newDirectoryStream(directory, "*.crt")) {
+            for (Path certificate : certificates) {
+                String fileName = certificate.getFileName().toString();
+                String baseName = fileName.substring(0, fileName.length() - ".crt".length());
+                Path key = certificate.resolveSibling(baseName + ".key");
+                if (Files.isRegularFile(key)) {
+                    sources.add(files(RsaFileKeySpec.of(certificate.toFile(), key.toFile())));
+                }
+            }
+        }
+        return sources;
+    }
+
+    /** One source per private key entry of a PKCS#12 or JKS store; keys are decrypted during validation. */
+    static List<KeyPairSource> keystore(String storeName, KeystoreIndex index) {
+        List<KeyPairSource> sources = new ArrayList<>();
+        for (String alias : index.keyAliases()) {
+            sources.add(new KeyPairSource() {
+                @Override
+                public String name() {
+                    return storeName + ":" + alias;
+                }
+
+                @Override
+                public Certificate certificate() {
+                    return index.certificate(alias);
+                }
+
+                @Override
+                public PrivateKey privateKey() {
+                    return index.privateKey(alias);
+                }
+            });
+        }
+        return sources;
+    }
+
+    /** One source per private key entry on the token, paired with that entry's certificate. */
+    static List<KeyPairSource> token(String tokenName, Pkcs11TokenIndex index) {
+        List<KeyPairSource> sources = new ArrayList<>();
+        for (String alias : index.keyAliases()) {
+            sources.add(new KeyPairSource() {
+                @Override
+                public String name() {
+                    return tokenName + ":" + alias;
+                }
+
+                @Override
+                public Certificate certificate() {
+                    return index.certificate(alias);
+                }
+
+                @Override
+                public PrivateKey privateKey() {
+                    return index.privateKey(alias);
+                }
+            });
+        }
+        return sources;
+    }
+}
@@ -0,0 +1,54 @@
+package com.flower.crypt.keys.engine;
+
+import javax.annotation.Nullable;
+
+/** Outcome of checking a provider's key material in the background, for display next to the inputs. */
+public final class KeyValidation {
+    public enum Status {
+        /** Nothing entered. */
+        EMPTY,
+        /** Input changed; a check is scheduled or running. */
+        PENDING,
+        /** Certificate and key parsed, match each other, and a key manager factory is ready. */
+        VALID,
+        INVALID
+    }
+
+    public static final KeyValidation EMPTY = new KeyValidation(Status.EMPTY, "", null);
+    public static final KeyValidation PENDING = new KeyValidation(Status.PENDING, "Checking...", null);
+
+    final Status status;
+    final String message;
+    @Nullable final String fingerprint;
+
+    KeyValidation(Status status, String message, @Nullable String fingerprint) {
+        this.status = status;
+        this.message = message;
+        this.fingerprint = fingerprint;
+    }
+
+    public static KeyValidation valid(String message, String fingerprint) {
+        return new KeyValidation(Status.VALID, message, fingerprint);
+    }
+
+    public static KeyValidation invalid(String message) {
+        return new KeyValidation(Status.INVALID, message, null);
+    }
+
+    public static KeyValidation invalid(Throwable error) {
+        return invalid(error.getMessage() != null ? error.getMessage() : error.toString());
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    /** Fingerprint of the validated pair, see {@link KeyFingerprint}; only set when {@link Status#VALID}. */
+    @Nullable public String fingerprint() {
+        return fingerprint;
+    }
+}
@@ -0,0 +1,257 @@
+package com.flower.crypt.keys.engine;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory metadata for one loaded PKCS#12 or JKS keystore, built in a single pass over its aliases.
+ * Certificate chains are read during the pass. Private keys stay encrypted in the {@link KeyStore} until first
+ * used; each one is then decrypted once and kept, so switching identities never decrypts the store again.
+ * An index belongs to one {@link KeyStore} instance - reloading the file means building a new index.
+ */
+public class KeystoreIndex {
+    public static final String PKCS12 = "PKCS12";
+    public static final String JKS = "JKS";
+    public static final String JCEKS = "JCEKS";
+
+    static final int JKS_MAGIC = 0xFEEDFEED;
+    static final int JCEKS_MAGIC = 0xCECECECE;
+
+    public static final class Entry {
+        final String alias;
+        final boolean keyEntry;
+        /** Leaf first; a single certificate for trusted certificate entries, empty for secret keys. */
+        final List<X509Certificate> chain;
+        @Nullable final String fingerprint;
+
+        Entry(String alias, boolean keyEntry, List<X509Certificate> chain) {
+            this.alias = alias;
+            this.keyEntry = keyEntry;
+            this.chain = chain;
+            this.fingerprint = chain.isEmpty() ? null : KeyFingerprint.sha256(chain.get(0));
+        }
+
+        public String alias() {
+            return alias;
+        }
+
+        public boolean isKeyEntry() {
+            return keyEntry;
+        }
+
+        @Nullable public X509Certificate certificate() {
+            return chain.isEmpty() ? null : chain.get(0);
+        }
+
+        public List<X509Certificate> chain() {
+            return chain;
+        }
+
+        /** SHA-256 of the certificate, hex encoded. */
+        @Nullable public String fingerprint() {
+            return fingerprint;
+        }
+    }
+
+    /** A decrypted private key entry with the fingerprint of its chain and key, for {@link KeyManagerFactoryCache}. */
+    static final class KeyMaterial {
+        final List<X509Certificate> chain;
+        final PrivateKey key;
+        final String fingerprint;
+
+        KeyMaterial(List<X509Certificate> chain, PrivateKey key) {
+            this.chain = chain;
+            this.key = key;
+            this.fingerprint = KeyFingerprint.sha256(chain, key);
+        }
+    }
+
+    final KeyStore keyStore;
+    final char[] password;
+    final ImmutableMap<String, Entry> byAlias;
+    final ImmutableListMultimap<String, Entry> bySubject;
+    final ImmutableMap<String, Entry> byFingerprint;
+    final List<String> keyAliases;
+    final Map<String, KeyMaterial> keyMaterial = new ConcurrentHashMap<>();
+
+    KeystoreIndex(KeyStore keyStore, char[] password, List<Entry> entries) {
+        this.keyStore = keyStore;
+        this.password = password;
+
+        ImmutableMap.Builder<String, Entry> byAlias = ImmutableMap.builder();
+        ImmutableListMultimap.Builder<String, Entry> bySubject = ImmutableListMultimap.builder();
+        Map<String, Entry> byFingerprint = new LinkedHashMap<>();
+        List<String> keyAliases = new ArrayList<>();
+        for (Entry entry : entries) {
+            byAlias.put(entry.alias, entry);
+            X509Certificate certificate = entry.certificate();
+            if (certificate != null && entry.fingerprint != null) {
+                bySubject.put(certificate.getSubjectX500Principal().getName(), entry);
+                byFingerprint.putIfAbsent(entry.fingerprint, entry);
+            }
+            if (entry.keyEntry && certificate != null) {
+                keyAliases.add(entry.alias);
+            }
+        }
+        this.byAlias = byAlias.buildKeepingLast();
+        this.bySubject = bySubject.build();
+        this.byFingerprint = ImmutableMap.copyOf(byFingerprint);
+        this.keyAliases = Collections.unmodifiableList(keyAliases);
+    }
+
+    /**
+     * Read {@code file} with one channel read, detect its type from the first bytes and index it. The bytes are
+     * parsed from memory, so the file is never opened a second time.
+     */
+    public static KeystoreIndex read(Path file, char[] password) throws IOException, GeneralSecurityException {
+        ByteBuffer contents;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Keystore file too large: " + file);
+            }
+            contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining() && channel.read(contents) >= 0) {
+                // keep reading until the buffer is full or the file ends
+            }
+        }
+        byte[] bytes = contents.array();
+        return load(contents.hasRemaining() ? Arrays.copyOf(bytes, contents.position()) : bytes, password);
+    }
+
+    /** Index a keystore held in memory, of the type its contents indicate. */
+    public static KeystoreIndex load(byte[] contents, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(detectType(contents));
+        keyStore.load(new ByteArrayInputStream(contents), password);
+        return build(keyStore, password);
+    }
+
+    /** JKS and JCEKS stores start with a magic number; anything else is taken to be PKCS#12. */
+    static String detectType(byte[] contents) {
+        if (contents.length >= 4) {
+            int magic = ByteBuffer.wrap(contents, 0, 4).getInt();
+            if (magic == JKS_MAGIC) {
+                return JKS;
+            }
+            if (magic == JCEKS_MAGIC) {
+                return JCEKS;
+            }
+        }
+        return PKCS12;
+    }
+
+    /** Enumerate the store once, reading every alias' entry type and certificate chain. */
+    public static KeystoreIndex build(KeyStore keyStore, char[] password) throws KeyStoreException {
+        List<Entry> entries = new ArrayList<>();
+        for (String alias : Collections.list(keyStore.aliases())) {
+            boolean keyEntry = keyStore.isKeyEntry(alias);
+            Certificate[] chain = keyEntry ? keyStore.getCertificateChain(alias) : null;
+            if (chain == null) {
+                Certificate certificate = keyStore.getCertificate(alias);
+                chain = certificate == null ? new Certificate[0] : new Certificate[] { certificate };
+            }
+            entries.add(new Entry(alias, keyEntry, x509Chain(chain)));
+        }
+        return new KeystoreIndex(keyStore, password.clone(), entries);
+    }
+
+    static List<X509Certificate> x509Chain(Certificate[] chain) {
+        List<X509Certificate> certificates = new ArrayList<>(chain.length);
+        for (Certificate certificate : chain) {
+            if (!(certificate instanceof X509Certificate)) {
+                return List.of();
+            }
+            certificates.add((X509Certificate) certificate);
+        }
+        return List.copyOf(certificates);
+    }
+
+    public KeyStore keyStore() {
+        return keyStore;
+    }
+
+    public int size() {
+        return byAlias.size();
+    }
+
+    /** Aliases of private key entries with a certificate, i.e. the identities the store can serve. */
+    public List<String> keyAliases() {
+        return keyAliases;
+    }
+
+    @Nullable public Entry byAlias(String alias) {
+        return byAlias.get(alias);
+    }
+
+    /** Entries whose certificate subject matches, in RFC 2253 form. */
+    public List<Entry> bySubject(String subject) {
+        return bySubject.get(subject);
+    }
+
+    @Nullable public Entry byFingerprint(String fingerprint) {
+        return byFingerprint.get(fingerprint);
+    }
+
+    Entry keyEntry(String alias) {
+        Entry entry = byAlias.get(alias);
+        if (entry == null || !entry.keyEntry || entry.chain.isEmpty()) {
+            throw new IllegalArgumentException("No private key with a certificate for alias " + alias);
+        }
+        return entry;
+    }
+
+    public List<X509Certificate> chain(String alias) {
+        return keyEntry(alias).chain;
+    }
+
+    public X509Certificate certificate(String alias) {
+        return keyEntry(alias).chain.get(0);
+    }
+
+    /** Private key for {@code alias}, decrypted the first time only. */
+    public PrivateKey privateKey(String alias) {
+        return keyMaterial(alias).key;
+    }
+
+    KeyMaterial keyMaterial(String alias) {
+        return keyMaterial.computeIfAbsent(alias, a -> {
+            Entry entry = keyEntry(a);
+            try {
+                Key key = keyStore.getKey(a, password);
+                if (!(key instanceof PrivateKey)) {
+                    throw new IllegalArgumentException("Entry " + a + " is not a private key");
+                }
+                return new KeyMaterial(entry.chain, (PrivateKey) key);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /** Private keys decrypted so far. */
+    public int decryptedKeyCount() {
+        return keyMaterial.size();
+    }
+}
@@ -0,0 +1,325 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.RsaKeyContext;
+import com.flower.crypt.keys.RsaKeyProvider;
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.flower.crypt.keys.metrics.MetricsTagged;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.crypto.Cipher;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.security.auth.login.LoginException;
+import java.net.Socket;
+import java.security.AuthProvider;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * PKCS#11 backend that logs into the token several times, one {@link KeyStore} per session, and resolves the
+ * certificate and private key handles once per session up front.
+ * <p>
+ * Sign and decrypt requests run on a bounded executor with one thread per session, so throughput scales with the
+ * token's session limit instead of serializing through a single provider instance. The {@link KeyManagerFactory}
+ * returned by {@link #getKeyManagerFactory()} spreads TLS handshake signatures across the sessions the same way.
+ * <p>
+ * {@link #close()} lets submitted operations finish and stops taking new ones; the token stays logged in, since other
+ * users in the process may share that login (see {@link #logoutToken()}).
+ */
+public class Pkcs11SessionPool extends MetricsTagged implements RsaKeyProvider, AutoCloseable {
+    final static Logger LOGGER = LoggerFactory.getLogger(Pkcs11SessionPool.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    /** How long {@link #close()} waits for submitted operations before abandoning them. */
+    public static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofSeconds(30);
+
+    static final class Pkcs11Session {
+        final KeyStore keyStore;
+        final X509Certificate certificate;
+        final PrivateKey privateKey;
+
+        Pkcs11Session(KeyStore keyStore, X509Certificate certificate, PrivateKey privateKey) {
+            this.keyStore = keyStore;
+            this.certificate = certificate;
+            this.privateKey = privateKey;
+        }
+    }
+
+    final List<Pkcs11Session> sessions;
+    final BlockingQueue<Pkcs11Session> idleSessions;
+    final ExecutorService executor;
+    final String certificateAlias;
+    final KeyManagerFactory keyManagerFactory;
+
+    final AtomicInteger nextSession = new AtomicInteger();
+    final LongAdder sessionWaits = new LongAdder();
+    final AtomicBoolean closed = new AtomicBoolean();
+
+    public Pkcs11SessionPool(RsaPkcs11KeySpec spec, int sessionCount) throws Exception {
+        this(spec, sessionCount, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param sessionCount number of token logins to open; keep it within the token's session limit
+     * @param queueCapacity operations allowed to wait for a session before submissions are rejected
+     */
+    public Pkcs11SessionPool(RsaPkcs11KeySpec spec, int sessionCount, int queueCapacity) throws Exception {
+        super("PKCS#11");
+        checkArgument(sessionCount > 0, "sessionCount must be positive");
+
+        KeyStore firstKeyStore = PkiUtil.loadPKCS11KeyStore(spec.libraryPath(), spec.tokenPin());
+        Pkcs11TokenIndex firstIndex = Pkcs11TokenIndex.build(firstKeyStore);
+        String certificateAlias = RsaPkcs11KeyEngine.pickAlias(firstIndex.certificateAliases(), spec.certificateAlias());
+        String keyAlias = RsaPkcs11KeyEngine.pickAlias(firstIndex.keyAliases(), spec.privateKeyAlias());
+        if (certificateAlias == null || keyAlias == null) {
+            throw new IllegalArgumentException("PKCS#11 token has no certificate or private key");
+        }
+
+        List<Pkcs11Session> sessions = new ArrayList<>(sessionCount);
+        for (int i = 0; i < sessionCount; i++) {
+            KeyStore keyStore = i == 0 ? firstKeyStore : PkiUtil.loadPKCS11KeyStore(spec.libraryPath(), spec.tokenPin());
+            X509Certificate certificate = (X509Certificate)PkiUtil.getCertificateFromKeyStore(keyStore, certificateAlias);
+            PrivateKey privateKey = (PrivateKey)PkiUtil.getKeyFromKeyStore(keyStore, keyAlias);
+            sessions.add(new Pkcs11Session(keyStore, certificate, privateKey));
+        }
+
+        this.sessions = List.copyOf(sessions);
+        this.idleSessions = new ArrayBlockingQueue<>(sessionCount, false, sessions);
+        this.certificateAlias = certificateAlias;
+        this.executor = new ThreadPoolExecutor(sessionCount, sessionCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("pkcs11-session-%d").setDaemon(true).build());
+        this.keyManagerFactory = KeyManagerFactories.of(new PooledKeyManager());
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /** Certificate as stored on the token, for callers that want to show or pin it. */
+    public Certificate getCertificate() {
+        return sessions.get(0).certificate;
+    }
+
+    /** Operations submitted while every session was busy, i.e. that had to queue for a session. */
+    public long getSessionWaitCount() {
+        return sessionWaits.sum();
+    }
+
+    Pkcs11Session nextSession() {
+        return sessions.get(Math.floorMod(nextSession.getAndIncrement(), sessions.size()));
+    }
+
+    interface SessionOperation<T> {
+        T run(Pkcs11Session session) throws Exception;
+    }
+
+    <T> CompletableFuture<T> submit(KeyMetrics.Timer timer, SessionOperation<T> operation) {
+        if (closed.get()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("PKCS#11 session pool is closed"));
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        String metricsTag = getMetricsTag();
+        boolean busy = idleSessions.isEmpty();
+        long submitted = Metrics.start();
+        try {
+            executor.execute(() -> {
+                if (result.isCancelled()) {
+                    return;
+                }
+                try {
+                    Pkcs11Session session = idleSessions.take();
+                    Metrics.stop(metricsTag, KeyMetrics.Timer.PKCS11_SESSION_WAIT, submitted);
+                    long start = Metrics.start();
+                    try {
+                        result.complete(operation.run(session));
+                    } finally {
+                        idleSessions.add(session);
+                        Metrics.stop(metricsTag, timer, start);
+                    }
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full, or closed meanwhile.
+            return CompletableFuture.failedFuture(e);
+        }
+        if (busy) {
+            sessionWaits.increment();
+            Metrics.increment(metricsTag, KeyMetrics.Counter.PKCS11_SESSION_BUSY);
+        }
+        return result;
+    }
+
+    /** Sign {@code data} with the token key, e.g. {@code sign("SHA256withRSA", data)}. */
+    public CompletableFuture<byte[]> sign(String algorithm, byte[] data) {
+        return submit(KeyMetrics.Timer.PKCS11_SIGN, session -> {
+            Signature signature = Signature.getInstance(algorithm, session.keyStore.getProvider());
+            signature.initSign(session.privateKey);
+            signature.update(data);
+            return signature.sign();
+        });
+    }
+
+    /** Decrypt {@code data} with the token key, e.g. {@code decrypt("RSA/ECB/PKCS1Padding", data)}. */
+    public CompletableFuture<byte[]> decrypt(String transformation, byte[] data) {
+        return submit(KeyMetrics.Timer.PKCS11_DECRYPT, session -> {
+            Cipher cipher = Cipher.getInstance(transformation, session.keyStore.getProvider());
+            cipher.init(Cipher.DECRYPT_MODE, session.privateKey);
+            return cipher.doFinal(data);
+        });
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        return keyManagerFactory;
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        long start = Metrics.start();
+        try {
+            Pkcs11Session session = nextSession();
+            return RsaKeyContext.of(session.certificate.getPublicKey(), session.privateKey, session.certificate);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_CONTEXT, start);
+        }
+    }
+
+    @Override
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Stop taking operations and wait up to {@code timeout} for submitted ones to finish, interrupting them after
+     * that. Only the first call does anything.
+     * @return whether every submitted operation finished in time
+     */
+    public boolean close(Duration timeout) {
+        if (!closed.compareAndSet(false, true)) {
+            return true;
+        }
+        executor.shutdown();
+        boolean finished = false;
+        try {
+            finished = executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!finished) {
+            LOGGER.warn("PKCS#11 operations still running after {}, interrupting them", timeout);
+            executor.shutdownNow();
+        }
+        return finished;
+    }
+
+    /**
+     * Log out of the token. PKCS#11 login state belongs to the whole process, not to one session: this logs out every
+     * user of the token in the JVM - other pools and {@link RsaPkcs11KeyEngine}s included - whose key handles then fail
+     * until they log in again. {@link #close()} doesn't do it.
+     */
+    public void logoutToken() throws LoginException {
+        Provider provider = sessions.get(0).keyStore.getProvider();
+        if (provider instanceof AuthProvider) {
+            ((AuthProvider) provider).logout();
+        }
+    }
+
+    /**
+     * Serves the pool's single identity. The certificate is the same in every session; the private key handle is
+     * taken round-robin so the handshake signature runs on a different token session each time.
+     */
+    final class PooledKeyManager extends X509ExtendedKeyManager {
+        boolean matches(String keyType) {
+            return keyType.equals(sessions.get(0).certificate.getPublicKey().getAlgorithm());
+        }
+
+        @Nullable String alias(@Nullable String keyType) {
+            return keyType != null && matches(keyType) ? certificateAlias : null;
+        }
+
+        @Nullable String alias(@Nullable String[] keyTypes) {
+            if (keyTypes != null) {
+                for (String keyType : keyTypes) {
+                    if (matches(keyType)) {
+                        return certificateAlias;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        @Nullable public String[] getClientAliases(String keyType, @Nullable Principal[] issuers) {
+            return matches(keyType) ? new String[] { certificateAlias } : null;
+        }
+
+        @Override
+        @Nullable public String chooseClientAlias(@Nullable String[] keyTypes, @Nullable Principal[] issuers,
+                                                  @Nullable Socket socket) {
+            return alias(keyTypes);
+        }
+
+        @Override
+        @Nullable public String chooseEngineClientAlias(@Nullable String[] keyTypes, @Nullable Principal[] issuers,
+                                                        @Nullable SSLEngine engine) {
+            return alias(keyTypes);
+        }
+
+        @Override
+        @Nullable public String[] getServerAliases(String keyType, @Nullable Principal[] issuers) {
+            return matches(keyType) ? new String[] { certificateAlias } : null;
+        }
+
+        @Override
+        @Nullable public String chooseServerAlias(@Nullable String keyType, @Nullable Principal[] issuers,
+                                                  @Nullable Socket socket) {
+            return alias(keyType);
+        }
+
+        @Override
+        @Nullable public String chooseEngineServerAlias(@Nullable String keyType, @Nullable Principal[] issuers,
+                                                        @Nullable SSLEngine engine) {
+            return alias(keyType);
+        }
+
+        @Override
+        @Nullable public X509Certificate[] getCertificateChain(@Nullable String alias) {
+            return certificateAlias.equals(alias) ? new X509Certificate[] { sessions.get(0).certificate } : null;
+        }
+
+        @Override
+        @Nullable public PrivateKey getPrivateKey(@Nullable String alias) {
+            return certificateAlias.equals(alias) ? nextSession().privateKey : null;
+        }
+    }
+}
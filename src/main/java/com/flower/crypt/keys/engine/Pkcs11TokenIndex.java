@@ -0,0 +1,152 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory metadata for one loaded PKCS#11 token, built in a single pass over its aliases.
+ * Certificates are read once during the pass; private key handles are resolved on first use and then kept.
+ * An index belongs to one {@link KeyStore} instance - reloading the token means building a new index.
+ */
+public class Pkcs11TokenIndex {
+    public static final class Entry {
+        final String alias;
+        final boolean keyEntry;
+        @Nullable final X509Certificate certificate;
+        @Nullable final String fingerprint;
+
+        Entry(String alias, boolean keyEntry, @Nullable X509Certificate certificate) {
+            this.alias = alias;
+            this.keyEntry = keyEntry;
+            this.certificate = certificate;
+            this.fingerprint = certificate == null ? null : KeyFingerprint.sha256(certificate);
+        }
+
+        public String alias() {
+            return alias;
+        }
+
+        public boolean isKeyEntry() {
+            return keyEntry;
+        }
+
+        @Nullable public X509Certificate certificate() {
+            return certificate;
+        }
+
+        /** SHA-256 of the certificate, hex encoded. */
+        @Nullable public String fingerprint() {
+            return fingerprint;
+        }
+    }
+
+    final KeyStore keyStore;
+    final ImmutableMap<String, Entry> byAlias;
+    final ImmutableListMultimap<String, Entry> bySubject;
+    final ImmutableMap<String, Entry> byFingerprint;
+    final List<String> certificateAliases;
+    final List<String> keyAliases;
+    final Map<String, PrivateKey> privateKeys = new ConcurrentHashMap<>();
+
+    Pkcs11TokenIndex(KeyStore keyStore, List<Entry> entries) {
+        this.keyStore = keyStore;
+
+        ImmutableMap.Builder<String, Entry> byAlias = ImmutableMap.builder();
+        ImmutableListMultimap.Builder<String, Entry> bySubject = ImmutableListMultimap.builder();
+        Map<String, Entry> byFingerprint = new LinkedHashMap<>();
+        List<String> certificateAliases = new ArrayList<>();
+        List<String> keyAliases = new ArrayList<>();
+        for (Entry entry : entries) {
+            byAlias.put(entry.alias, entry);
+            if (entry.certificate != null) {
+                certificateAliases.add(entry.alias);
+                bySubject.put(entry.certificate.getSubjectX500Principal().getName(), entry);
+                byFingerprint.putIfAbsent(checkedFingerprint(entry), entry);
+            }
+            if (entry.keyEntry) {
+                keyAliases.add(entry.alias);
+            }
+        }
+        this.byAlias = byAlias.buildKeepingLast();
+        this.bySubject = bySubject.build();
+        this.byFingerprint = ImmutableMap.copyOf(byFingerprint);
+        this.certificateAliases = Collections.unmodifiableList(certificateAliases);
+        this.keyAliases = Collections.unmodifiableList(keyAliases);
+    }
+
+    static String checkedFingerprint(Entry entry) {
+        String fingerprint = entry.fingerprint;
+        if (fingerprint == null) {
+            throw new IllegalStateException("No fingerprint for certificate entry " + entry.alias);
+        }
+        return fingerprint;
+    }
+
+    /** Enumerate the token once, reading every alias' entry type and certificate. */
+    public static Pkcs11TokenIndex build(KeyStore keyStore) throws KeyStoreException {
+        List<Entry> entries = new ArrayList<>();
+        for (String alias : Collections.list(keyStore.aliases())) {
+            boolean keyEntry = keyStore.isKeyEntry(alias);
+            Certificate certificate = keyStore.getCertificate(alias);
+            entries.add(new Entry(alias, keyEntry,
+                    certificate instanceof X509Certificate ? (X509Certificate) certificate : null));
+        }
+        return new Pkcs11TokenIndex(keyStore, entries);
+    }
+
+    public KeyStore keyStore() {
+        return keyStore;
+    }
+
+    public List<String> certificateAliases() {
+        return certificateAliases;
+    }
+
+    public List<String> keyAliases() {
+        return keyAliases;
+    }
+
+    @Nullable public Entry byAlias(String alias) {
+        return byAlias.get(alias);
+    }
+
+    /** Entries whose certificate subject matches, in RFC 2253 form. */
+    public List<Entry> bySubject(String subject) {
+        return bySubject.get(subject);
+    }
+
+    @Nullable public Entry byFingerprint(String fingerprint) {
+        return byFingerprint.get(fingerprint);
+    }
+
+    public X509Certificate certificate(String alias) {
+        Entry entry = byAlias.get(alias);
+        if (entry == null || entry.certificate == null) {
+            throw new IllegalArgumentException("No certificate for alias " + alias);
+        }
+        return entry.certificate;
+    }
+
+    /** Private key handle for {@code alias}, looked up on the token the first time only. */
+    public PrivateKey privateKey(String alias) {
+        Entry entry = byAlias.get(alias);
+        if (entry == null || !entry.keyEntry) {
+            throw new IllegalArgumentException("No private key for alias " + alias);
+        }
+        return privateKeys.computeIfAbsent(alias, a -> (PrivateKey)PkiUtil.getKeyFromKeyStore(keyStore, a));
+    }
+}
@@ -0,0 +1,196 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.RsaKeyProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Key manager that delegates to the current key generation, read through a volatile reference on every call, so
+ * a rotation applies to live SSLContexts without rebuilding them and without any lock on the handshake path.
+ * <p>
+ * Aliases handed out are tagged with their generation. A handshake that chose its alias just before a rotation
+ * still gets the certificate chain and private key of that same generation, as long as only one rotation happens
+ * while it runs.
+ */
+public class ReloadableX509KeyManager extends X509ExtendedKeyManager {
+    final static Logger LOGGER = LoggerFactory.getLogger(ReloadableX509KeyManager.class);
+
+    static final String GENERATION_PREFIX = "g";
+    static final char GENERATION_SEPARATOR = ':';
+
+    static final class Generation {
+        final long id;
+        final X509ExtendedKeyManager delegate;
+
+        Generation(long id, X509ExtendedKeyManager delegate) {
+            this.id = id;
+            this.delegate = delegate;
+        }
+    }
+
+    final AtomicLong generationIds = new AtomicLong();
+    @Nullable volatile Generation current;
+    @Nullable volatile Generation previous;
+    volatile boolean inUse;
+    @Nullable KeyManagerFactory factory;
+
+    /** Switch to the key manager of {@code keyManagerFactory}. */
+    public synchronized void reload(KeyManagerFactory keyManagerFactory) {
+        X509ExtendedKeyManager delegate = extendedKeyManager(keyManagerFactory);
+        Generation current = this.current;
+        if (current != null && current.delegate == delegate) {
+            return;
+        }
+        previous = current;
+        this.current = new Generation(generationIds.incrementAndGet(), delegate);
+    }
+
+    /** Whether {@link #asFactory} was called, i.e. whether reloads have anyone to serve. */
+    public boolean isInUse() {
+        return inUse;
+    }
+
+    /**
+     * Reload from {@code provider} if anyone uses this key manager; a failure keeps the current generation.
+     * The provider is read under the same lock as the swap, so of two concurrent refreshes the one that reads
+     * later also installs later - stale material never replaces newer. Handshakes don't take the lock.
+     */
+    public synchronized void refreshFrom(RsaKeyProvider provider) {
+        if (!inUse) {
+            return;
+        }
+        try {
+            reload(provider.getKeyManagerFactory());
+        } catch (Exception e) {
+            LOGGER.warn("Key material not reloaded, serving the previous generation", e);
+        }
+    }
+
+    /** This key manager wrapped in a factory, primed from {@code provider} on first use. Always the same instance. */
+    public synchronized KeyManagerFactory asFactory(RsaKeyProvider provider) {
+        KeyManagerFactory factory = this.factory;
+        if (factory == null) {
+            reload(provider.getKeyManagerFactory());
+            factory = KeyManagerFactories.of(this);
+            this.factory = factory;
+            inUse = true;
+        }
+        return factory;
+    }
+
+    static X509ExtendedKeyManager extendedKeyManager(KeyManagerFactory keyManagerFactory) {
+        for (KeyManager keyManager : keyManagerFactory.getKeyManagers()) {
+            if (keyManager instanceof X509ExtendedKeyManager) {
+                return (X509ExtendedKeyManager) keyManager;
+            }
+        }
+        throw new IllegalArgumentException("KeyManagerFactory has no X509ExtendedKeyManager");
+    }
+
+    @Nullable static String tag(Generation generation, @Nullable String alias) {
+        return alias == null ? null : GENERATION_PREFIX + generation.id + GENERATION_SEPARATOR + alias;
+    }
+
+    @Nullable static String[] tag(Generation generation, @Nullable String[] aliases) {
+        if (aliases == null) {
+            return null;
+        }
+        String[] tagged = new String[aliases.length];
+        for (int i = 0; i < aliases.length; i++) {
+            tagged[i] = GENERATION_PREFIX + generation.id + GENERATION_SEPARATOR + aliases[i];
+        }
+        return tagged;
+    }
+
+    /** The generation an alias was handed out by, or {@code null} if it's older than the previous one. */
+    @Nullable Generation generationOf(String alias) {
+        int separator = alias.indexOf(GENERATION_SEPARATOR);
+        if (!alias.startsWith(GENERATION_PREFIX) || separator < 0) {
+            return null;
+        }
+        long id;
+        try {
+            id = Long.parseLong(alias.substring(GENERATION_PREFIX.length(), separator));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Generation current = this.current;
+        if (current != null && current.id == id) {
+            return current;
+        }
+        Generation previous = this.previous;
+        if (previous != null && previous.id == id) {
+            return previous;
+        }
+        return null;
+    }
+
+    static String untag(String alias) {
+        return alias.substring(alias.indexOf(GENERATION_SEPARATOR) + 1);
+    }
+
+    @Override
+    @Nullable public String[] getClientAliases(String keyType, @Nullable Principal[] issuers) {
+        Generation generation = current;
+        return generation == null ? null : tag(generation, generation.delegate.getClientAliases(keyType, issuers));
+    }
+
+    @Override
+    @Nullable public String chooseClientAlias(String[] keyType, @Nullable Principal[] issuers, @Nullable Socket socket) {
+        Generation generation = current;
+        return generation == null ? null : tag(generation, generation.delegate.chooseClientAlias(keyType, issuers, socket));
+    }
+
+    @Override
+    @Nullable public String chooseEngineClientAlias(String[] keyType, @Nullable Principal[] issuers, @Nullable SSLEngine engine) {
+        Generation generation = current;
+        return generation == null ? null : tag(generation, generation.delegate.chooseEngineClientAlias(keyType, issuers, engine));
+    }
+
+    @Override
+    @Nullable public String[] getServerAliases(String keyType, @Nullable Principal[] issuers) {
+        Generation generation = current;
+        return generation == null ? null : tag(generation, generation.delegate.getServerAliases(keyType, issuers));
+    }
+
+    @Override
+    @Nullable public String chooseServerAlias(String keyType, @Nullable Principal[] issuers, @Nullable Socket socket) {
+        Generation generation = current;
+        return generation == null ? null : tag(generation, generation.delegate.chooseServerAlias(keyType, issuers, socket));
+    }
+
+    @Override
+    @Nullable public String chooseEngineServerAlias(String keyType, @Nullable Principal[] issuers, @Nullable SSLEngine engine) {
+        Generation generation = current;
+        return generation == null ? null : tag(generation, generation.delegate.chooseEngineServerAlias(keyType, issuers, engine));
+    }
+
+    @Override
+    @Nullable public X509Certificate[] getCertificateChain(@Nullable String alias) {
+        if (alias == null) {
+            return null;
+        }
+        Generation generation = generationOf(alias);
+        return generation == null ? null : generation.delegate.getCertificateChain(untag(alias));
+    }
+
+    @Override
+    @Nullable public PrivateKey getPrivateKey(@Nullable String alias) {
+        if (alias == null) {
+            return null;
+        }
+        Generation generation = generationOf(alias);
+        return generation == null ? null : generation.delegate.getPrivateKey(untag(alias));
+    }
+}
@@ -0,0 +1,227 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.KeyLoadProgress;
+import com.flower.crypt.keys.KeyLoaders;
+import com.flower.crypt.keys.RsaKeyContext;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.flower.crypt.keys.metrics.MetricsTagged;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.security.spec.InvalidKeySpecException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Headless provider for a certificate/private key pair loaded from PEM files. The certificate file may be a bundle
+ * holding the intermediates too; they're served with the certificate, in chain order.
+ * Certificate and key are loaded independently and published together as one immutable pair,
+ * so readers on other threads never observe a certificate from one load and a key from another.
+ */
+public class RsaFileKeyEngine extends MetricsTagged implements ReloadableRsaKeyProvider {
+    static final class LoadedKeys {
+        /** Leaf first, then the intermediates found in the certificate file; empty until it is loaded. */
+        final List<X509Certificate> chain;
+        @Nullable final Certificate certificate;
+        @Nullable final PrivateKey key;
+        /** Fingerprint of the chain and key, computed once per load; {@code null} until both halves are loaded. */
+        @Nullable final String fingerprint;
+
+        LoadedKeys(List<X509Certificate> chain, @Nullable PrivateKey key) {
+            this.chain = chain;
+            this.certificate = chain.isEmpty() ? null : chain.get(0);
+            this.key = key;
+            this.fingerprint = !chain.isEmpty() && key != null ? KeyFingerprint.sha256(chain, key) : null;
+        }
+    }
+
+    volatile LoadedKeys loadedKeys = new LoadedKeys(List.of(), null);
+    final ReloadableX509KeyManager reloadableKeyManager = new ReloadableX509KeyManager();
+
+    public RsaFileKeyEngine() {
+        super("Files");
+    }
+
+    public RsaFileKeyEngine(RsaFileKeySpec spec) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        super("Files");
+        load(spec);
+    }
+
+    public void load(RsaFileKeySpec spec) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        load(spec, KeyLoadProgress.NONE);
+    }
+
+    /** Read both files, then publish them together. Files are read outside the lock, so readers never wait on I/O. */
+    public void load(RsaFileKeySpec spec, KeyLoadProgress progress)
+            throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        progress.onProgress("Reading certificate " + spec.certificateFile(), 0, 2);
+        List<X509Certificate> chain = readCertificateChain(spec.certificateFile());
+        KeyLoaders.checkCancelled();
+        progress.onProgress("Reading private key " + spec.privateKeyFile(), 1, 2);
+        PrivateKey key = readPrivateKey(spec.privateKeyFile());
+        KeyLoaders.checkCancelled();
+        synchronized (this) {
+            loadedKeys = new LoadedKeys(chain, key);
+        }
+        Metrics.increment(getMetricsTag(), KeyMetrics.Counter.REBUILD);
+        reloadableKeyManager.refreshFrom(this);
+        progress.onProgress("Loaded", 2, 2);
+    }
+
+    public void loadCertificate(File certificateFile) throws IOException {
+        List<X509Certificate> chain = readCertificateChain(certificateFile);
+        KeyLoaders.checkCancelled();
+        synchronized (this) {
+            loadedKeys = new LoadedKeys(chain, loadedKeys.key);
+        }
+        Metrics.increment(getMetricsTag(), KeyMetrics.Counter.REBUILD);
+        reloadableKeyManager.refreshFrom(this);
+    }
+
+    public void loadPrivateKey(File keyFile) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        PrivateKey key = readPrivateKey(keyFile);
+        KeyLoaders.checkCancelled();
+        synchronized (this) {
+            loadedKeys = new LoadedKeys(loadedKeys.chain, key);
+        }
+        Metrics.increment(getMetricsTag(), KeyMetrics.Counter.REBUILD);
+        reloadableKeyManager.refreshFrom(this);
+    }
+
+    /**
+     * Re-read both files, check that the private key matches the certificate and build the new
+     * {@link KeyManagerFactory} before publishing the pair, so callers switch from one warm factory to the next.
+     * On any failure the current pair stays in place.
+     */
+    public void reload(RsaFileKeySpec spec) throws Exception {
+        List<X509Certificate> chain = readCertificateChain(spec.certificateFile());
+        PrivateKey key = readPrivateKey(spec.privateKeyFile());
+        if (!PkiUtil.testKeyPairMatchBySigning(chain.get(0).getPublicKey(), key)) {
+            throw new IllegalArgumentException("Private key " + spec.privateKeyFile()
+                    + " doesn't match certificate " + spec.certificateFile());
+        }
+        LoadedKeys newKeys = new LoadedKeys(chain, key);
+        KeyManagerFactoryCache.shared().get(getMetricsTag(), checkNotNull(newKeys.fingerprint), chain, key);
+        synchronized (this) {
+            loadedKeys = newKeys;
+        }
+        Metrics.increment(getMetricsTag(), KeyMetrics.Counter.REBUILD);
+        reloadableKeyManager.refreshFrom(this);
+    }
+
+    /** {@link #load(RsaFileKeySpec, KeyLoadProgress)} on the {@link KeyLoaders} executor; cancellable. */
+    public CompletableFuture<KeyContext> loadAsync(RsaFileKeySpec spec, KeyLoadProgress progress) {
+        return KeyLoaders.submit(() -> {
+            load(spec, progress);
+            return getKeyContext();
+        });
+    }
+
+    public CompletableFuture<Certificate> loadCertificateAsync(File certificateFile) {
+        return KeyLoaders.submit(() -> {
+            loadCertificate(certificateFile);
+            return checkNotNull(getCertificate());
+        });
+    }
+
+    public CompletableFuture<PrivateKey> loadPrivateKeyAsync(File keyFile) {
+        return KeyLoaders.submit(() -> {
+            loadPrivateKey(keyFile);
+            return checkNotNull(getPrivateKey());
+        });
+    }
+
+    static Certificate readCertificate(File certificateFile) throws IOException {
+        return readCertificateChain(certificateFile).get(0);
+    }
+
+    /** Every certificate in the file - a single certificate or a bundle with its intermediates - in chain order. */
+    static List<X509Certificate> readCertificateChain(File certificateFile) throws IOException {
+        try {
+            return CertificateChains.readChain(certificateFile.toPath());
+        } catch (CertificateException e) {
+            throw new IOException("Unreadable certificate file " + certificateFile, e);
+        }
+    }
+
+    static PrivateKey readPrivateKey(File keyFile) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+        try (InputStream stream = new FileInputStream(keyFile)) {
+            return PkiUtil.getPrivateKeyFromStream(stream);
+        }
+    }
+
+    @Nullable public Certificate getCertificate() {
+        return loadedKeys.certificate;
+    }
+
+    /** The loaded certificate followed by its intermediates; empty until a certificate is loaded. */
+    public List<X509Certificate> getCertificateChain() {
+        return loadedKeys.chain;
+    }
+
+    @Nullable public PrivateKey getPrivateKey() {
+        return loadedKeys.key;
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        long start = Metrics.start();
+        try {
+            LoadedKeys loadedKeys = this.loadedKeys;
+            Certificate fileCertificate = loadedKeys.certificate;
+            PrivateKey fileKey = loadedKeys.key;
+            if (fileCertificate == null) {
+                throw new RuntimeException("Certificate not loaded");
+            }
+            if (fileKey == null) {
+                throw new RuntimeException("Key not loaded");
+            }
+
+            return KeyManagerFactoryCache.shared().get(getMetricsTag(), checkNotNull(loadedKeys.fingerprint),
+                    loadedKeys.chain, fileKey);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_MANAGER_FACTORY, start);
+        }
+    }
+
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return reloadableKeyManager.asFactory(this);
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        long start = Metrics.start();
+        try {
+            LoadedKeys loadedKeys = this.loadedKeys;
+            Certificate fileCertificate = loadedKeys.certificate;
+            PrivateKey fileKey = loadedKeys.key;
+            if (fileCertificate == null) {
+                throw new RuntimeException("Certificate not loaded");
+            }
+            if (fileKey == null) {
+                throw new RuntimeException("Key not loaded");
+            }
+            return RsaKeyContext.of(fileCertificate.getPublicKey(), fileKey, loadedKeys.chain);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_CONTEXT, start);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.flower.crypt.keys.engine;
+
+import java.io.File;
+import java.util.Objects;
+
+/** Paths to a PEM certificate (.crt) and a PEM private key (.key) on disk. */
+public final class RsaFileKeySpec {
+    final File certificateFile;
+    final File privateKeyFile;
+
+    RsaFileKeySpec(File certificateFile, File privateKeyFile) {
+        this.certificateFile = certificateFile;
+        this.privateKeyFile = privateKeyFile;
+    }
+
+    public static RsaFileKeySpec of(File certificateFile, File privateKeyFile) {
+        return new RsaFileKeySpec(certificateFile, privateKeyFile);
+    }
+
+    public static RsaFileKeySpec of(String certificatePath, String privateKeyPath) {
+        return new RsaFileKeySpec(new File(certificatePath), new File(privateKeyPath));
+    }
+
+    public File certificateFile() {
+        return certificateFile;
+    }
+
+    public File privateKeyFile() {
+        return privateKeyFile;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (!(o instanceof RsaFileKeySpec)) { return false; }
+        RsaFileKeySpec that = (RsaFileKeySpec) o;
+        return certificateFile.equals(that.certificateFile) && privateKeyFile.equals(that.privateKeyFile);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(certificateFile, privateKeyFile);
+    }
+}
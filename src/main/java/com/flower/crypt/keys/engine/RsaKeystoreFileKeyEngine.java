@@ -0,0 +1,192 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.KeyLoadProgress;
+import com.flower.crypt.keys.KeyLoaders;
+import com.flower.crypt.keys.RsaKeyContext;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.flower.crypt.keys.metrics.MetricsTagged;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import java.io.File;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Headless provider for one identity of a PKCS#12 or JKS keystore file.
+ * The file is read once per load into a {@link KeystoreIndex}, published together with the selected alias as one
+ * immutable snapshot. Selecting another alias is a lookup in that index: the private key is decrypted on first
+ * use and its {@link KeyManagerFactory} built into the shared cache, so the store is never read or decrypted again.
+ */
+public class RsaKeystoreFileKeyEngine extends MetricsTagged implements ReloadableRsaKeyProvider {
+    static final class StoreState {
+        @Nullable final KeystoreIndex index;
+        @Nullable final String alias;
+
+        StoreState(@Nullable KeystoreIndex index, @Nullable String alias) {
+            this.index = index;
+            this.alias = alias;
+        }
+
+        List<String> aliases() {
+            return index == null ? List.of() : index.keyAliases();
+        }
+    }
+
+    volatile StoreState storeState = new StoreState(null, null);
+    final ReloadableX509KeyManager reloadableKeyManager = new ReloadableX509KeyManager();
+
+    public RsaKeystoreFileKeyEngine() {
+        super("Keystore");
+    }
+
+    public RsaKeystoreFileKeyEngine(RsaKeystoreFileKeySpec spec) throws Exception {
+        super("Keystore");
+        load(spec);
+    }
+
+    /** Load the keystore and select the spec's alias, falling back to the first private key entry. */
+    public void load(RsaKeystoreFileKeySpec spec) throws Exception {
+        load(spec, KeyLoadProgress.NONE);
+    }
+
+    /** The file is read and indexed outside the lock, so alias selection on the UI thread never waits on it. */
+    public void load(RsaKeystoreFileKeySpec spec, KeyLoadProgress progress) throws Exception {
+        progress.onProgress("Reading keystore " + spec.keystoreFile(), 0, 1);
+        KeystoreIndex index = KeystoreIndex.read(spec.keystoreFile().toPath(), spec.password().toCharArray());
+        KeyLoaders.checkCancelled();
+        publish(index, spec.alias());
+        reloadableKeyManager.refreshFrom(this);
+        progress.onProgress("Loaded", 1, 1);
+    }
+
+    /** Load {@code keystoreFile}, keeping the current alias selection where the new store still has it. */
+    public void load(File keystoreFile, String password, KeyLoadProgress progress) throws Exception {
+        load(RsaKeystoreFileKeySpec.of(keystoreFile, password, storeState.alias), progress);
+    }
+
+    synchronized void publish(KeystoreIndex index, @Nullable String alias) {
+        storeState = new StoreState(index, RsaPkcs11KeyEngine.pickAlias(index.keyAliases(), alias));
+        Metrics.increment(getMetricsTag(), KeyMetrics.Counter.REBUILD);
+    }
+
+    /** {@link #load(File, String, KeyLoadProgress)} on the {@link KeyLoaders} executor; cancellable. */
+    public CompletableFuture<KeystoreIndex> loadAsync(File keystoreFile, String password, KeyLoadProgress progress) {
+        return KeyLoaders.submit(() -> {
+            load(keystoreFile, password, progress);
+            return getIndex();
+        });
+    }
+
+    public CompletableFuture<KeyContext> loadAsync(RsaKeystoreFileKeySpec spec, KeyLoadProgress progress) {
+        return KeyLoaders.submit(() -> {
+            load(spec, progress);
+            return getKeyContext();
+        });
+    }
+
+    /**
+     * Switch to another identity of the loaded store. Live key managers from {@link #getReloadableKeyManagerFactory()}
+     * follow; that decrypts the alias' key if it hasn't been used before.
+     */
+    public void selectAlias(@Nullable String alias) {
+        synchronized (this) {
+            storeState = new StoreState(storeState.index, alias);
+        }
+        reloadableKeyManager.refreshFrom(this);
+    }
+
+    /**
+     * {@link #selectAlias} for the UI thread: the selection applies at once, while decrypting the alias' key and
+     * switching live key managers to it run on the {@link KeyLoaders} executor. Completes with the selected alias.
+     */
+    public CompletableFuture<String> selectAliasAsync(@Nullable String alias) {
+        StoreState state;
+        synchronized (this) {
+            state = new StoreState(storeState.index, alias);
+            storeState = state;
+        }
+        return KeyLoaders.submit(() -> {
+            if (state.index != null && alias != null) {
+                state.index.keyMaterial(alias);
+            }
+            KeyLoaders.checkCancelled();
+            reloadableKeyManager.refreshFrom(this);
+            return alias;
+        });
+    }
+
+    public boolean isLoaded() {
+        return storeState.index != null;
+    }
+
+    /** Aliases of the private key entries, in store order. */
+    public List<String> getAliases() {
+        return storeState.aliases();
+    }
+
+    @Nullable public String getAlias() {
+        return storeState.alias;
+    }
+
+    /** Index of the loaded store, for lookups by subject or fingerprint. */
+    public KeystoreIndex getIndex() {
+        return loadedIndex(storeState);
+    }
+
+    KeystoreIndex loadedIndex(StoreState state) {
+        if (state.index == null) {
+            throw new RuntimeException("Keystore not loaded");
+        }
+        return state.index;
+    }
+
+    static String selectedAlias(StoreState state) {
+        if (state.alias == null) {
+            throw new RuntimeException("Keystore alias not selected");
+        }
+        return state.alias;
+    }
+
+    public List<X509Certificate> getCertificateChain(String alias) {
+        return loadedIndex(storeState).chain(alias);
+    }
+
+    public PrivateKey getPrivateKey(String alias) {
+        return loadedIndex(storeState).privateKey(alias);
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        long start = Metrics.start();
+        try {
+            StoreState state = storeState;
+            KeystoreIndex.KeyMaterial keys = loadedIndex(state).keyMaterial(selectedAlias(state));
+            return KeyManagerFactoryCache.shared().get(getMetricsTag(), keys.fingerprint, keys.chain, keys.key);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_MANAGER_FACTORY, start);
+        }
+    }
+
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return reloadableKeyManager.asFactory(this);
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        long start = Metrics.start();
+        try {
+            StoreState state = storeState;
+            KeystoreIndex.KeyMaterial keys = loadedIndex(state).keyMaterial(selectedAlias(state));
+            return RsaKeyContext.of(keys.chain.get(0).getPublicKey(), keys.key, keys.chain);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_CONTEXT, start);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.flower.crypt.keys.engine;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Objects;
+
+/**
+ * Path to a PKCS#12 ({@code .p12}/{@code .pfx}) or JKS keystore, its password, and the alias to use.
+ * The alias may be left {@code null}, in which case the first private key entry of the store is used.
+ * The store type is detected from the file contents.
+ */
+public final class RsaKeystoreFileKeySpec {
+    final File keystoreFile;
+    final String password;
+    @Nullable final String alias;
+
+    RsaKeystoreFileKeySpec(File keystoreFile, String password, @Nullable String alias) {
+        this.keystoreFile = keystoreFile;
+        this.password = password;
+        this.alias = alias;
+    }
+
+    public static RsaKeystoreFileKeySpec of(File keystoreFile, String password) {
+        return new RsaKeystoreFileKeySpec(keystoreFile, password, null);
+    }
+
+    public static RsaKeystoreFileKeySpec of(File keystoreFile, String password, @Nullable String alias) {
+        return new RsaKeystoreFileKeySpec(keystoreFile, password, alias);
+    }
+
+    public static RsaKeystoreFileKeySpec of(String keystorePath, String password, @Nullable String alias) {
+        return new RsaKeystoreFileKeySpec(new File(keystorePath), password, alias);
+    }
+
+    public File keystoreFile() {
+        return keystoreFile;
+    }
+
+    public String password() {
+        return password;
+    }
+
+    @Nullable public String alias() {
+        return alias;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (!(o instanceof RsaKeystoreFileKeySpec)) { return false; }
+        RsaKeystoreFileKeySpec that = (RsaKeystoreFileKeySpec) o;
+        return keystoreFile.equals(that.keystoreFile)
+                && password.equals(that.password)
+                && Objects.equals(alias, that.alias);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(keystoreFile, password, alias);
+    }
+}
@@ -0,0 +1,331 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.KeyLoadProgress;
+import com.flower.crypt.keys.KeyLoaders;
+import com.flower.crypt.keys.RsaKeyContext;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.flower.crypt.keys.metrics.MetricsTagged;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.ProviderException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Headless provider backed by a PKCS#11 token.
+ * The token's {@link Pkcs11TokenIndex} and the selected aliases are published as one immutable snapshot, so
+ * alias, certificate and key handle lookups are served from memory instead of going back to the token.
+ * The index is dropped on reload and when the token stops answering (e.g. it was removed): a key handle lookup
+ * that fails drops it, and so does the token check, which asks the token for its aliases every
+ * {@link #setTokenCheckInterval token check interval} while a token is loaded. Signatures made with the handles
+ * elsewhere, e.g. during TLS handshakes, fail without passing through the engine; the check is what notices those.
+ */
+public class RsaPkcs11KeyEngine extends MetricsTagged implements ReloadableRsaKeyProvider {
+    final static Logger LOGGER = LoggerFactory.getLogger(RsaPkcs11KeyEngine.class);
+
+    /** Numbers token loads; PKCS#11 keys can't be exported, so a load is fingerprinted by its sequence number. */
+    static final AtomicLong LOAD_SEQUENCE = new AtomicLong();
+
+    public static final Duration DEFAULT_TOKEN_CHECK_INTERVAL = Duration.ofSeconds(5);
+    static final ScheduledExecutorService TOKEN_CHECKER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("pkcs11-token-check-%d").setDaemon(true).build());
+
+    static final class TokenState {
+        @Nullable final Pkcs11TokenIndex index;
+        final String fingerprint;
+        @Nullable final String certificateAlias;
+        @Nullable final String keyAlias;
+
+        TokenState(@Nullable Pkcs11TokenIndex index, String fingerprint,
+                   @Nullable String certificateAlias, @Nullable String keyAlias) {
+            this.index = index;
+            this.fingerprint = fingerprint;
+            this.certificateAlias = certificateAlias;
+            this.keyAlias = keyAlias;
+        }
+
+        TokenState withAliases(@Nullable String certificateAlias, @Nullable String keyAlias) {
+            return new TokenState(index, fingerprint, certificateAlias, keyAlias);
+        }
+
+        List<String> certificateAliases() {
+            return index == null ? List.of() : index.certificateAliases();
+        }
+
+        List<String> keyAliases() {
+            return index == null ? List.of() : index.keyAliases();
+        }
+    }
+
+    volatile TokenState tokenState = new TokenState(null, "", null, null);
+    final ReloadableX509KeyManager reloadableKeyManager = new ReloadableX509KeyManager();
+    Duration tokenCheckInterval = DEFAULT_TOKEN_CHECK_INTERVAL;
+    /** Guarded by {@code this}. */
+    @Nullable ScheduledFuture<?> tokenCheck;
+
+    public RsaPkcs11KeyEngine() {
+        super("PKCS#11");
+    }
+
+    public RsaPkcs11KeyEngine(RsaPkcs11KeySpec spec) throws Exception {
+        super("PKCS#11");
+        load(spec);
+    }
+
+    /** How often a loaded token is checked for presence; {@link Duration#ZERO} turns the check off. */
+    public synchronized void setTokenCheckInterval(Duration interval) {
+        checkArgument(!interval.isNegative(), "interval must not be negative");
+        this.tokenCheckInterval = interval;
+        scheduleTokenCheck();
+    }
+
+    synchronized void scheduleTokenCheck() {
+        ScheduledFuture<?> previous = tokenCheck;
+        if (previous != null) {
+            previous.cancel(false);
+            tokenCheck = null;
+        }
+        long intervalMillis = tokenCheckInterval.toMillis();
+        if (intervalMillis > 0 && tokenState.index != null) {
+            tokenCheck = TOKEN_CHECKER.scheduleWithFixedDelay(this::checkToken,
+                    intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Ask the token for its aliases; if it doesn't answer, drop the index the way a failed key lookup does.
+     * @return whether a token is loaded and answering
+     */
+    public boolean checkToken() {
+        TokenState state = tokenState;
+        Pkcs11TokenIndex index = state.index;
+        if (index == null) {
+            return false;
+        }
+        try {
+            onToken(state, () -> {
+                try {
+                    return index.keyStore().aliases();
+                } catch (KeyStoreException e) {
+                    throw new ProviderException(e);
+                }
+            });
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /** Load the token and select the spec's aliases, falling back to the first alias of each kind. */
+    public void load(RsaPkcs11KeySpec spec) throws Exception {
+        load(spec, KeyLoadProgress.NONE);
+    }
+
+    public void load(RsaPkcs11KeySpec spec, KeyLoadProgress progress) throws Exception {
+        Pkcs11TokenIndex index = loadIndex(spec.libraryPath(), spec.tokenPin(), progress);
+        publish(index, spec.certificateAlias(), spec.privateKeyAlias());
+        reloadableKeyManager.refreshFrom(this);
+        progress.onProgress("Loaded", 2, 2);
+    }
+
+    /** Load the token, keeping the current alias selection where the new token still has it. */
+    public void load(String libraryPath, String tokenPin) throws Exception {
+        load(libraryPath, tokenPin, KeyLoadProgress.NONE);
+    }
+
+    public void load(String libraryPath, String tokenPin, KeyLoadProgress progress) throws Exception {
+        Pkcs11TokenIndex index = loadIndex(libraryPath, tokenPin, progress);
+        TokenState before = tokenState;
+        publish(index, before.certificateAlias, before.keyAlias);
+        reloadableKeyManager.refreshFrom(this);
+        progress.onProgress("Loaded", 2, 2);
+    }
+
+    /** Token login and enumeration happen outside the lock, so alias selection on the UI thread never waits on them. */
+    static Pkcs11TokenIndex loadIndex(String libraryPath, String tokenPin, KeyLoadProgress progress) throws Exception {
+        progress.onProgress("Logging into PKCS#11 token", 0, 2);
+        KeyStore keyStore = PkiUtil.loadPKCS11KeyStore(libraryPath, tokenPin);
+        KeyLoaders.checkCancelled();
+        progress.onProgress("Reading token contents", 1, 2);
+        Pkcs11TokenIndex index = Pkcs11TokenIndex.build(keyStore);
+        KeyLoaders.checkCancelled();
+        return index;
+    }
+
+    synchronized void publish(Pkcs11TokenIndex index, @Nullable String certificateAlias, @Nullable String keyAlias) {
+        TokenState before = tokenState;
+        String fingerprint = "pkcs11:" + LOAD_SEQUENCE.incrementAndGet();
+        tokenState = new TokenState(index, fingerprint,
+                pickAlias(index.certificateAliases(), certificateAlias),
+                pickAlias(index.keyAliases(), keyAlias));
+        KeyManagerFactoryCache.shared().invalidate(before.fingerprint);
+        Metrics.increment(getMetricsTag(), KeyMetrics.Counter.REBUILD);
+        scheduleTokenCheck();
+    }
+
+    /** {@link #load(String, String, KeyLoadProgress)} on the {@link KeyLoaders} executor; cancellable. */
+    public CompletableFuture<Pkcs11TokenIndex> loadAsync(String libraryPath, String tokenPin, KeyLoadProgress progress) {
+        return KeyLoaders.submit(() -> {
+            load(libraryPath, tokenPin, progress);
+            return getIndex();
+        });
+    }
+
+    public CompletableFuture<KeyContext> loadAsync(RsaPkcs11KeySpec spec, KeyLoadProgress progress) {
+        return KeyLoaders.submit(() -> {
+            load(spec, progress);
+            return getKeyContext();
+        });
+    }
+
+    /** Forget the loaded token; it has to be loaded again before use. The alias selection is kept. */
+    public synchronized void invalidate() {
+        invalidate(tokenState);
+    }
+
+    /** Forget {@code failed} if it's still the loaded token; a token loaded since then is kept. */
+    synchronized void invalidate(TokenState failed) {
+        TokenState before = tokenState;
+        if (before.index == null || before.index != failed.index) {
+            return;
+        }
+        tokenState = new TokenState(null, "", before.certificateAlias, before.keyAlias);
+        KeyManagerFactoryCache.shared().invalidate(before.fingerprint);
+        scheduleTokenCheck();
+    }
+
+    @Nullable static String pickAlias(List<String> aliases, @Nullable String preferred) {
+        if (aliases.isEmpty()) {
+            return null;
+        }
+        return preferred != null && aliases.contains(preferred) ? preferred : aliases.get(0);
+    }
+
+    public synchronized void selectAliases(@Nullable String certificateAlias, @Nullable String keyAlias) {
+        tokenState = tokenState.withAliases(certificateAlias, keyAlias);
+    }
+
+    public boolean isLoaded() {
+        return tokenState.index != null;
+    }
+
+    public List<String> getCertificateAliases() {
+        return tokenState.certificateAliases();
+    }
+
+    public List<String> getKeyAliases() {
+        return tokenState.keyAliases();
+    }
+
+    @Nullable public String getCertificateAlias() {
+        return tokenState.certificateAlias;
+    }
+
+    @Nullable public String getKeyAlias() {
+        return tokenState.keyAlias;
+    }
+
+    /** Index of the loaded token, for lookups by subject or fingerprint. */
+    public Pkcs11TokenIndex getIndex() {
+        return loadedIndex(tokenState);
+    }
+
+    Pkcs11TokenIndex loadedIndex(TokenState state) {
+        if (state.index == null) {
+            throw new RuntimeException("PKCS#11 store not loaded");
+        }
+        return state.index;
+    }
+
+    public Certificate getCertificate(String certificateAlias) {
+        return loadedIndex(tokenState).certificate(certificateAlias);
+    }
+
+    public PrivateKey getPrivateKey(String keyAlias) {
+        TokenState state = tokenState;
+        return onToken(state, () -> loadedIndex(state).privateKey(keyAlias));
+    }
+
+    /**
+     * Run a lookup on {@code state}'s token; if the token is gone, drop that index so stale handles aren't served.
+     * Only {@code state} is dropped - if another load finished meanwhile, its index stays.
+     */
+    <T> T onToken(TokenState state, Supplier<T> lookup) {
+        try {
+            return lookup.get();
+        } catch (ProviderException e) {
+            LOGGER.warn("PKCS#11 token stopped responding, dropping its index", e);
+            invalidate(state);
+            throw e;
+        }
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        long start = Metrics.start();
+        try {
+            TokenState state = tokenState;
+            KeyStore pkcs11KeyStore = loadedIndex(state).keyStore();
+
+            return KeyManagerFactoryCache.shared().get(getMetricsTag(), state.fingerprint, () -> {
+                KeyManagerFactory keyManagerFactory =
+                        KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                keyManagerFactory.init(pkcs11KeyStore, null);
+                return keyManagerFactory;
+            });
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_MANAGER_FACTORY, start);
+        }
+    }
+
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return reloadableKeyManager.asFactory(this);
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        long start = Metrics.start();
+        try {
+            TokenState state = tokenState;
+            Pkcs11TokenIndex index = loadedIndex(state);
+            String certAlias = state.certificateAlias;
+            String keyAlias = state.keyAlias;
+            if (certAlias == null) {
+                throw new RuntimeException("PKCS#11 certificate alias not selected");
+            }
+            if (keyAlias == null) {
+                throw new RuntimeException("PKCS#11 private key alias not selected");
+            }
+
+            X509Certificate certificate = index.certificate(certAlias);
+            PrivateKey key = onToken(state, () -> index.privateKey(keyAlias));
+            return RsaKeyContext.of(certificate.getPublicKey(), key, certificate);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_CONTEXT, start);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.flower.crypt.keys.engine;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * PKCS#11 library, token PIN and the certificate/private key aliases to use.
+ * Aliases may be left {@code null}, in which case the first alias found on the token is used.
+ */
+public final class RsaPkcs11KeySpec {
+    final String libraryPath;
+    final String tokenPin;
+    @Nullable final String certificateAlias;
+    @Nullable final String privateKeyAlias;
+
+    RsaPkcs11KeySpec(String libraryPath, String tokenPin, @Nullable String certificateAlias,
+                     @Nullable String privateKeyAlias) {
+        this.libraryPath = libraryPath;
+        this.tokenPin = tokenPin;
+        this.certificateAlias = certificateAlias;
+        this.privateKeyAlias = privateKeyAlias;
+    }
+
+    public static RsaPkcs11KeySpec of(String libraryPath, String tokenPin) {
+        return new RsaPkcs11KeySpec(libraryPath, tokenPin, null, null);
+    }
+
+    public static RsaPkcs11KeySpec of(String libraryPath, String tokenPin, @Nullable String certificateAlias,
+                                      @Nullable String privateKeyAlias) {
+        return new RsaPkcs11KeySpec(libraryPath, tokenPin, certificateAlias, privateKeyAlias);
+    }
+
+    public String libraryPath() {
+        return libraryPath;
+    }
+
+    public String tokenPin() {
+        return tokenPin;
+    }
+
+    @Nullable public String certificateAlias() {
+        return certificateAlias;
+    }
+
+    @Nullable public String privateKeyAlias() {
+        return privateKeyAlias;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (!(o instanceof RsaPkcs11KeySpec)) { return false; }
+        RsaPkcs11KeySpec that = (RsaPkcs11KeySpec) o;
+        return libraryPath.equals(that.libraryPath)
+                && tokenPin.equals(that.tokenPin)
+                && Objects.equals(certificateAlias, that.certificateAlias)
+                && Objects.equals(privateKeyAlias, that.privateKeyAlias);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(libraryPath, tokenPin, certificateAlias, privateKeyAlias);
+    }
+}
@@ -0,0 +1,226 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.PkiUtil;
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.RsaKeyContext;
+import com.flower.crypt.keys.KeyLoaders;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
+import com.flower.crypt.keys.metrics.KeyMetrics;
+import com.flower.crypt.keys.metrics.Metrics;
+import com.flower.crypt.keys.metrics.MetricsTagged;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Headless provider for a PEM certificate/private key pair held in memory. The certificate text may carry the
+ * intermediates as well; they're put in chain order and served along with the certificate.
+ * Safe to call from any thread; the spec is swapped atomically by {@link #setSpec}.
+ * <p>
+ * Each new spec is checked in the background once it has stopped changing for {@link #PREPARE_DEBOUNCE}: it is
+ * parsed, the key is matched against the certificate and the {@link KeyManagerFactory} is built into the shared
+ * cache, so {@link #getKeyManagerFactory()} finds it ready. The result is reported as a {@link KeyValidation}.
+ */
+public class RsaRawKeyEngine extends MetricsTagged implements ReloadableRsaKeyProvider {
+    public static final Duration PREPARE_DEBOUNCE = Duration.ofMillis(250);
+
+    volatile RsaRawKeySpec spec;
+    final ReloadableX509KeyManager reloadableKeyManager = new ReloadableX509KeyManager();
+
+    final SingleFlightSlot<RsaRawKeySpec, ParsedKeys> currentKeys = new SingleFlightSlot<>();
+    static final class ParsedKeys {
+        final RsaRawKeySpec spec;
+        /** Leaf first; intermediates pasted along with the certificate follow it. */
+        final List<X509Certificate> chain;
+        final X509Certificate certificate;
+        final PrivateKey key;
+        final String fingerprint;
+
+        ParsedKeys(RsaRawKeySpec spec, List<X509Certificate> chain, PrivateKey key) {
+            this.spec = spec;
+            this.chain = chain;
+            this.certificate = chain.get(0);
+            this.key = key;
+            this.fingerprint = KeyFingerprint.sha256(chain, key);
+        }
+    }
+
+    /** Last successful parse of one half, so editing the key doesn't re-parse an unchanged certificate and vice versa. */
+    static final class ParsedText<T> {
+        final String text;
+        final T value;
+
+        ParsedText(String text, T value) {
+            this.text = text;
+            this.value = value;
+        }
+    }
+
+    @Nullable volatile ParsedText<List<X509Certificate>> lastCertificate;
+    @Nullable volatile ParsedText<PrivateKey> lastKey;
+
+    volatile KeyValidation validation = KeyValidation.EMPTY;
+    final List<Consumer<KeyValidation>> validationListeners = new CopyOnWriteArrayList<>();
+    @Nullable ScheduledFuture<?> pendingPrepare;
+
+    public RsaRawKeyEngine() {
+        this(RsaRawKeySpec.EMPTY);
+    }
+
+    public RsaRawKeyEngine(RsaRawKeySpec spec) {
+        super("Raw");
+        this.spec = checkNotNull(spec);
+        schedulePrepare(spec);
+    }
+
+    public RsaRawKeySpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Replace the key material and schedule its background check. Live key managers from
+     * {@link #getReloadableKeyManagerFactory()} switch over once the new pair has been checked.
+     */
+    public void setSpec(RsaRawKeySpec spec) {
+        this.spec = checkNotNull(spec);
+        schedulePrepare(spec);
+    }
+
+    public KeyValidation getValidation() {
+        return validation;
+    }
+
+    /** {@code listener} is called on a background thread with every validation state change. */
+    public void addValidationListener(Consumer<KeyValidation> listener) {
+        validationListeners.add(checkNotNull(listener));
+    }
+
+    public void removeValidationListener(Consumer<KeyValidation> listener) {
+        validationListeners.remove(listener);
+    }
+
+    void schedulePrepare(RsaRawKeySpec spec) {
+        boolean empty = StringUtils.isAllBlank(spec.certificate(), spec.privateKey());
+        publish(spec, empty ? KeyValidation.EMPTY : KeyValidation.PENDING);
+        synchronized (this) {
+            ScheduledFuture<?> previous = pendingPrepare;
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            pendingPrepare = empty ? null : KeyLoaders.schedule(() -> prepare(spec), PREPARE_DEBOUNCE);
+        }
+    }
+
+    /** Parse, match and build the factory for {@code spec}, unless a newer spec replaced it in the meantime. */
+    void prepare(RsaRawKeySpec spec) {
+        if (spec != this.spec) {
+            return;
+        }
+        try {
+            ParsedKeys keys = parsedKeys(spec);
+            if (!PkiUtil.testKeyPairMatchBySigning(keys.certificate.getPublicKey(), keys.key)) {
+                publish(spec, KeyValidation.invalid("Private key doesn't match the certificate"));
+                return;
+            }
+            KeyManagerFactoryCache.shared().get(getMetricsTag(), keys.fingerprint, keys.chain, keys.key);
+            publish(spec, KeyValidation.valid(keys.certificate.getSubjectX500Principal().getName()
+                    + ", valid until " + keys.certificate.getNotAfter().toInstant(), keys.fingerprint));
+        } catch (Exception e) {
+            publish(spec, KeyValidation.invalid(e));
+            return;
+        }
+        reloadableKeyManager.refreshFrom(this);
+    }
+
+    void publish(RsaRawKeySpec spec, KeyValidation validation) {
+        synchronized (this) {
+            if (spec != this.spec) {
+                return;
+            }
+            this.validation = validation;
+        }
+        validationListeners.forEach(listener -> listener.accept(validation));
+    }
+
+    /**
+     * Parse the current spec, once per spec: concurrent callers share one parse.
+     * Specs are replaced, never mutated, so the slot compares them by identity - no need to compare the PEM text.
+     */
+    ParsedKeys parsedKeys() throws Exception {
+        return parsedKeys(this.spec);
+    }
+
+    ParsedKeys parsedKeys(RsaRawKeySpec spec) throws Exception {
+        return currentKeys.get(spec, () -> {
+            Metrics.increment(getMetricsTag(), KeyMetrics.Counter.REBUILD);
+            return new ParsedKeys(spec, parseCertificateChain(spec.certificate()), parsePrivateKey(spec.privateKey()));
+        });
+    }
+
+    /** The certificate and any intermediates in {@code text}, in chain order whatever order they were pasted in. */
+    List<X509Certificate> parseCertificateChain(String text) throws Exception {
+        ParsedText<List<X509Certificate>> last = lastCertificate;
+        if (last != null && last.text.equals(text)) {
+            return last.value;
+        }
+        List<X509Certificate> chain = CertificateChains.parseChain(text);
+        lastCertificate = new ParsedText<>(text, chain);
+        return chain;
+    }
+
+    PrivateKey parsePrivateKey(String text) throws Exception {
+        ParsedText<PrivateKey> last = lastKey;
+        if (last != null && last.text.equals(text)) {
+            return last.value;
+        }
+        PrivateKey key = PkiUtil.getPrivateKeyFromString(text);
+        lastKey = new ParsedText<>(text, key);
+        return key;
+    }
+
+    /** Callers that waited for another thread's parse of the same spec instead of parsing it themselves. */
+    public long getContendedParseCount() {
+        return currentKeys.contendedCount();
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        long start = Metrics.start();
+        try {
+            ParsedKeys keys = parsedKeys();
+            return KeyManagerFactoryCache.shared().get(getMetricsTag(), keys.fingerprint, keys.chain, keys.key);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_MANAGER_FACTORY, start);
+        }
+    }
+
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return reloadableKeyManager.asFactory(this);
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        long start = Metrics.start();
+        try {
+            ParsedKeys keys = parsedKeys();
+            return RsaKeyContext.of(keys.certificate.getPublicKey(), keys.key, keys.chain);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.stop(getMetricsTag(), KeyMetrics.Timer.KEY_CONTEXT, start);
+        }
+    }
+}
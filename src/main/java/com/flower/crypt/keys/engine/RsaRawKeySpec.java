@@ -0,0 +1,41 @@
+package com.flower.crypt.keys.engine;
+
+import java.util.Objects;
+
+/** PEM-encoded certificate and private key, as entered in the "Raw" tab. */
+public final class RsaRawKeySpec {
+    public static final RsaRawKeySpec EMPTY = new RsaRawKeySpec("", "");
+
+    final String certificate;
+    final String privateKey;
+
+    RsaRawKeySpec(String certificate, String privateKey) {
+        this.certificate = certificate;
+        this.privateKey = privateKey;
+    }
+
+    public static RsaRawKeySpec of(String certificate, String privateKey) {
+        return new RsaRawKeySpec(certificate, privateKey);
+    }
+
+    public String certificate() {
+        return certificate;
+    }
+
+    public String privateKey() {
+        return privateKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (!(o instanceof RsaRawKeySpec)) { return false; }
+        RsaRawKeySpec that = (RsaRawKeySpec) o;
+        return certificate.equals(that.certificate) && privateKey.equals(that.privateKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(certificate, privateKey);
+    }
+}
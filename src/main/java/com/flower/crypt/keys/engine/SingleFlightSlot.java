@@ -0,0 +1,94 @@
+package com.flower.crypt.keys.engine;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-slot cache whose value is built by exactly one caller per key; concurrent callers asking for the same key
+ * wait on that caller's future instead of building their own copy.
+ * Keys are compared by identity - callers pass immutable snapshots (specs, factories) that are replaced, not mutated.
+ */
+public class SingleFlightSlot<K, V> {
+    final AtomicReference<Flight<K, V>> currentFlight = new AtomicReference<>(null);
+    final LongAdder builds = new LongAdder();
+    final LongAdder contended = new LongAdder();
+
+    static final class Flight<K, V> {
+        final K key;
+        final CompletableFuture<V> future;
+
+        Flight(K key) {
+            this.key = key;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    public V get(K key, Callable<V> builder) throws Exception {
+        while (true) {
+            Flight<K, V> flight = currentFlight.get();
+            if (flight != null && flight.key == key) {
+                if (!flight.future.isDone()) {
+                    contended.increment();
+                }
+                return await(flight.future);
+            }
+
+            Flight<K, V> newFlight = new Flight<>(key);
+            if (currentFlight.compareAndSet(flight, newFlight)) {
+                builds.increment();
+                try {
+                    V value = builder.call();
+                    newFlight.future.complete(value);
+                    return value;
+                } catch (Throwable t) {
+                    // Don't pin the failure: the next caller retries the build.
+                    currentFlight.compareAndSet(newFlight, null);
+                    newFlight.future.completeExceptionally(t);
+                    throw t;
+                }
+            }
+        }
+    }
+
+    static <V> V await(CompletableFuture<V> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Value of the last completed build, if it's for {@code key}. Never blocks or builds. */
+    @Nullable public V getIfPresent(K key) {
+        Flight<K, V> flight = currentFlight.get();
+        if (flight != null && flight.key == key && flight.future.isDone() && !flight.future.isCompletedExceptionally()) {
+            return flight.future.join();
+        }
+        return null;
+    }
+
+    public void invalidate() {
+        currentFlight.set(null);
+    }
+
+    /** Number of builds actually run. */
+    public long buildCount() {
+        return builds.sum();
+    }
+
+    /** Number of callers that found a build in progress and waited for it instead of building. */
+    public long contendedCount() {
+        return contended.sum();
+    }
+}
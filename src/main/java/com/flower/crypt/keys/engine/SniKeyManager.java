@@ -0,0 +1,320 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.RsaKeyProvider;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Composite key manager serving many identities from one {@code SSLContext}: the certificate for each server
+ * handshake is picked by the SNI hostname the client asked for and the key type the cipher suite needs.
+ * <p>
+ * Hostnames are taken from each certificate's DNS subject alternative names (the subject CN if it has none) and
+ * indexed once, up front: an exact name is one hash lookup, {@code *.example.com} is a second lookup on the parent
+ * domain of the requested name. Handshakes without SNI, or for a name no certificate covers, get the first identity
+ * with a suitable key, in provider order.
+ */
+public class SniKeyManager extends X509ExtendedKeyManager {
+    final static Logger LOGGER = LoggerFactory.getLogger(SniKeyManager.class);
+
+    /** Key types whose aliases are collected from each source key manager. */
+    static final String[] KEY_TYPES = {"RSA", "RSASSA-PSS", "EC"};
+
+    static final String IDENTITY_PREFIX = "i";
+    static final char IDENTITY_SEPARATOR = ':';
+    static final int DNS_NAME = 2;
+
+    /** One certificate chain and key, as served by the source key manager under {@code alias}. */
+    static final class Identity {
+        final int id;
+        final X509ExtendedKeyManager source;
+        final String alias;
+        final String keyType;
+        final List<String> hostnames;
+
+        Identity(int id, X509ExtendedKeyManager source, String alias, X509Certificate certificate) {
+            this.id = id;
+            this.source = source;
+            this.alias = alias;
+            this.keyType = certificate.getPublicKey().getAlgorithm();
+            this.hostnames = hostnames(certificate);
+        }
+
+        String compositeAlias() {
+            return IDENTITY_PREFIX + id + IDENTITY_SEPARATOR + alias;
+        }
+    }
+
+    final ImmutableList<Identity> identities;
+    final ImmutableListMultimap<String, Identity> exactNames;
+    /** Keyed by the domain under the wildcard, e.g. {@code example.com} for {@code *.example.com}. */
+    final ImmutableListMultimap<String, Identity> wildcardNames;
+
+    SniKeyManager(List<Identity> identities) {
+        this.identities = ImmutableList.copyOf(identities);
+        ImmutableListMultimap.Builder<String, Identity> exactNames = ImmutableListMultimap.builder();
+        ImmutableListMultimap.Builder<String, Identity> wildcardNames = ImmutableListMultimap.builder();
+        for (Identity identity : identities) {
+            for (String hostname : identity.hostnames) {
+                if (hostname.startsWith("*.")) {
+                    wildcardNames.put(hostname.substring(2), identity);
+                } else {
+                    exactNames.put(hostname, identity);
+                }
+            }
+        }
+        this.exactNames = exactNames.build();
+        this.wildcardNames = wildcardNames.build();
+    }
+
+    /** Composite of every identity of {@code providers}, in order; providers that fail to load are skipped. */
+    public static SniKeyManager of(Collection<? extends RsaKeyProvider> providers) {
+        List<KeyManagerFactory> factories = new ArrayList<>();
+        for (RsaKeyProvider provider : providers) {
+            try {
+                factories.add(provider.getKeyManagerFactory());
+            } catch (RuntimeException e) {
+                LOGGER.debug("Provider {} has no key material, leaving it out", provider, e);
+            }
+        }
+        return ofFactories(factories);
+    }
+
+    /** Composite of every identity the key managers of {@code factories} serve, in order. */
+    public static SniKeyManager ofFactories(Collection<KeyManagerFactory> factories) {
+        List<Identity> identities = new ArrayList<>();
+        for (KeyManagerFactory factory : factories) {
+            X509ExtendedKeyManager source = ReloadableX509KeyManager.extendedKeyManager(factory);
+            Set<String> aliases = new LinkedHashSet<>();
+            for (String keyType : KEY_TYPES) {
+                String[] serverAliases = source.getServerAliases(keyType, null);
+                if (serverAliases != null) {
+                    aliases.addAll(List.of(serverAliases));
+                }
+            }
+            for (String alias : aliases) {
+                X509Certificate[] chain = source.getCertificateChain(alias);
+                if (chain != null && chain.length > 0) {
+                    identities.add(new Identity(identities.size(), source, alias, chain[0]));
+                }
+            }
+        }
+        return new SniKeyManager(identities);
+    }
+
+    public KeyManagerFactory asFactory() {
+        return KeyManagerFactories.of(this);
+    }
+
+    public int identityCount() {
+        return identities.size();
+    }
+
+    /** Hostnames the identities were indexed under, wildcards included; for display and diagnostics. */
+    public Set<String> hostnames() {
+        Set<String> hostnames = new LinkedHashSet<>(exactNames.keySet());
+        wildcardNames.keySet().forEach(domain -> hostnames.add("*." + domain));
+        return hostnames;
+    }
+
+    static List<String> hostnames(X509Certificate certificate) {
+        Set<String> hostnames = new LinkedHashSet<>();
+        try {
+            Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+            if (alternativeNames != null) {
+                for (List<?> alternativeName : alternativeNames) {
+                    if (alternativeName.size() >= 2 && Integer.valueOf(DNS_NAME).equals(alternativeName.get(0))
+                            && alternativeName.get(1) instanceof String) {
+                        hostnames.add(normalize((String) alternativeName.get(1)));
+                    }
+                }
+            }
+        } catch (CertificateParsingException e) {
+            LOGGER.warn("Unreadable subject alternative names in {}", certificate.getSubjectX500Principal(), e);
+        }
+        if (hostnames.isEmpty()) {
+            String commonName = commonName(certificate);
+            if (commonName != null) {
+                hostnames.add(normalize(commonName));
+            }
+        }
+        return List.copyOf(hostnames);
+    }
+
+    @Nullable static String commonName(X509Certificate certificate) {
+        try {
+            for (Rdn rdn : new LdapName(certificate.getSubjectX500Principal().getName()).getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    return rdn.getValue().toString();
+                }
+            }
+        } catch (InvalidNameException e) {
+            LOGGER.debug("Unparseable subject {}", certificate.getSubjectX500Principal(), e);
+        }
+        return null;
+    }
+
+    static String normalize(String hostname) {
+        String name = hostname.toLowerCase(Locale.ROOT);
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /** {@code EC_RSA} style TLS 1.2 key types name the key algorithm first. */
+    static boolean matchesKeyType(Identity identity, String keyType) {
+        int separator = keyType.indexOf('_');
+        return identity.keyType.equals(separator < 0 ? keyType : keyType.substring(0, separator));
+    }
+
+    @Nullable static String sniHostname(@Nullable SSLSession handshakeSession) {
+        if (handshakeSession instanceof ExtendedSSLSession) {
+            for (SNIServerName serverName : ((ExtendedSSLSession) handshakeSession).getRequestedServerNames()) {
+                if (serverName instanceof SNIHostName) {
+                    return normalize(((SNIHostName) serverName).getAsciiName());
+                }
+            }
+        }
+        return null;
+    }
+
+    @Nullable static Identity firstMatching(List<Identity> candidates, String keyType) {
+        for (Identity identity : candidates) {
+            if (matchesKeyType(identity, keyType)) {
+                return identity;
+            }
+        }
+        return null;
+    }
+
+    /** The identity serving {@code hostname} with a {@code keyType} key: exact name, then wildcard, then default. */
+    @Nullable Identity select(@Nullable String hostname, String keyType) {
+        if (hostname != null) {
+            Identity identity = firstMatching(exactNames.get(hostname), keyType);
+            if (identity != null) {
+                return identity;
+            }
+            int dot = hostname.indexOf('.');
+            if (dot > 0) {
+                identity = firstMatching(wildcardNames.get(hostname.substring(dot + 1)), keyType);
+                if (identity != null) {
+                    return identity;
+                }
+            }
+        }
+        return firstMatching(identities, keyType);
+    }
+
+    /** Server alias for a handshake asking for {@code hostname}; {@code null} hostname means no SNI. */
+    @Nullable public String chooseServerAlias(@Nullable String hostname, String keyType) {
+        Identity identity = select(hostname == null ? null : normalize(hostname), keyType);
+        return identity == null ? null : identity.compositeAlias();
+    }
+
+    @Nullable Identity identityOf(String alias) {
+        int separator = alias.indexOf(IDENTITY_SEPARATOR);
+        if (!alias.startsWith(IDENTITY_PREFIX) || separator < 0) {
+            return null;
+        }
+        try {
+            int id = Integer.parseInt(alias.substring(IDENTITY_PREFIX.length(), separator));
+            return id >= 0 && id < identities.size() ? identities.get(id) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Nullable String[] aliases(String keyType) {
+        List<String> aliases = new ArrayList<>();
+        for (Identity identity : identities) {
+            if (matchesKeyType(identity, keyType)) {
+                aliases.add(identity.compositeAlias());
+            }
+        }
+        return aliases.isEmpty() ? null : aliases.toArray(new String[0]);
+    }
+
+    /** Client certificates aren't picked by issuer; the first identity with an acceptable key type is used. */
+    @Nullable String chooseClientAlias(@Nullable String[] keyTypes) {
+        if (keyTypes == null) {
+            return null;
+        }
+        for (Identity identity : identities) {
+            for (String keyType : keyTypes) {
+                if (matchesKeyType(identity, keyType)) {
+                    return identity.compositeAlias();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable public String[] getClientAliases(String keyType, @Nullable Principal[] issuers) {
+        return aliases(keyType);
+    }
+
+    @Override
+    @Nullable public String chooseClientAlias(@Nullable String[] keyTypes, @Nullable Principal[] issuers, @Nullable Socket socket) {
+        return chooseClientAlias(keyTypes);
+    }
+
+    @Override
+    @Nullable public String chooseEngineClientAlias(@Nullable String[] keyTypes, @Nullable Principal[] issuers, @Nullable SSLEngine engine) {
+        return chooseClientAlias(keyTypes);
+    }
+
+    @Override
+    @Nullable public String[] getServerAliases(String keyType, @Nullable Principal[] issuers) {
+        return aliases(keyType);
+    }
+
+    @Override
+    @Nullable public String chooseServerAlias(String keyType, @Nullable Principal[] issuers, @Nullable Socket socket) {
+        SSLSession session = socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null;
+        Identity identity = select(sniHostname(session), keyType);
+        return identity == null ? null : identity.compositeAlias();
+    }
+
+    @Override
+    @Nullable public String chooseEngineServerAlias(String keyType, @Nullable Principal[] issuers, @Nullable SSLEngine engine) {
+        SSLSession session = engine == null ? null : engine.getHandshakeSession();
+        Identity identity = select(sniHostname(session), keyType);
+        return identity == null ? null : identity.compositeAlias();
+    }
+
+    @Override
+    @Nullable public X509Certificate[] getCertificateChain(@Nullable String alias) {
+        Identity identity = alias == null ? null : identityOf(alias);
+        return identity == null ? null : identity.source.getCertificateChain(identity.alias);
+    }
+
+    @Override
+    @Nullable public PrivateKey getPrivateKey(@Nullable String alias) {
+        Identity identity = alias == null ? null : identityOf(alias);
+        return identity == null ? null : identity.source.getPrivateKey(identity.alias);
+    }
+}
@@ -0,0 +1,100 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.RsaKeyProvider;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Builds one {@link SSLContext} per key material generation of an {@link RsaKeyProvider} and reuses it,
+ * so the context's session cache - and with it TLS session resumption - survives across connections.
+ * A new context is only built when the provider hands out a different {@link KeyManagerFactory}.
+ */
+public class SslContextProvider {
+    public static final String DEFAULT_PROTOCOL = "TLS";
+    /** Same as the JDK default session cache size. */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20480;
+    /** Same as the JDK default session timeout, 24 hours. */
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 86400;
+
+    protected final RsaKeyProvider keyProvider;
+    @Nullable protected final TrustManagerFactory trustManagerFactory;
+    protected final String protocol;
+    protected final int sessionCacheSize;
+    protected final int sessionTimeoutSeconds;
+
+    final SingleFlightSlot<KeyManagerFactory, SSLContext> currentContext = new SingleFlightSlot<>();
+
+    public SslContextProvider(RsaKeyProvider keyProvider) {
+        this(keyProvider, null, DEFAULT_PROTOCOL, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @param trustManagerFactory trust managers for peer verification, {@code null} for the JDK default
+     * @param sessionCacheSize maximum cached sessions per side, 0 for unlimited
+     * @param sessionTimeoutSeconds session lifetime, 0 for unlimited
+     */
+    public SslContextProvider(RsaKeyProvider keyProvider, @Nullable TrustManagerFactory trustManagerFactory,
+                              String protocol, int sessionCacheSize, int sessionTimeoutSeconds) {
+        this.keyProvider = checkNotNull(keyProvider);
+        this.trustManagerFactory = trustManagerFactory;
+        this.protocol = checkNotNull(protocol);
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+    }
+
+    /** The context for the provider's current key material, built on first use after a change. */
+    public SSLContext getSslContext() {
+        KeyManagerFactory keyManagerFactory = keyProvider.getKeyManagerFactory();
+        try {
+            return currentContext.get(keyManagerFactory, () -> buildSslContext(keyManagerFactory));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected SSLContext buildSslContext(KeyManagerFactory keyManagerFactory) {
+        try {
+            SSLContext sslContext = SSLContext.getInstance(protocol);
+            sslContext.init(keyManagerFactory.getKeyManagers(),
+                    trustManagerFactory == null ? null : trustManagerFactory.getTrustManagers(),
+                    null);
+            configureSessionContext(sslContext.getClientSessionContext());
+            configureSessionContext(sslContext.getServerSessionContext());
+            return sslContext;
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected void configureSessionContext(@Nullable SSLSessionContext sessionContext) {
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        }
+    }
+
+    /** Server-side engine; sessions resume across engines created from the same key generation. */
+    public SSLEngine createServerEngine() {
+        SSLEngine engine = getSslContext().createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    /** Client-side engine; {@code peerHost}/{@code peerPort} key the session cache for resumption. */
+    public SSLEngine createClientEngine(String peerHost, int peerPort) {
+        SSLEngine engine = getSslContext().createSSLEngine(peerHost, peerPort);
+        engine.setUseClientMode(true);
+        return engine;
+    }
+}
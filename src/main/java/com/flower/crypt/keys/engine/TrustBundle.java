@@ -0,0 +1,79 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.KeyLoaders;
+
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A set of trusted CA certificates - typically a PEM bundle file - with the {@link TrustManagerFactory} to verify
+ * peers against it, for {@link SslContextProvider}. The certificates are indexed once, when the bundle is read.
+ */
+public final class TrustBundle {
+    final CertificateIndex index;
+    final IndexedTrustManager trustManager;
+    final TrustManagerFactory trustManagerFactory;
+
+    TrustBundle(CertificateIndex index) {
+        this.index = index;
+        this.trustManager = new IndexedTrustManager(index);
+        this.trustManagerFactory = TrustManagerFactories.of(trustManager);
+    }
+
+    public static TrustBundle of(Collection<? extends X509Certificate> certificates) {
+        return new TrustBundle(CertificateIndex.of(certificates));
+    }
+
+    /** Every certificate in a PEM (or DER/PKCS#7) bundle file. */
+    public static TrustBundle read(Path bundle) throws IOException, CertificateException {
+        return of(CertificateChains.read(bundle));
+    }
+
+    public static TrustBundle parse(String pem) throws CertificateException {
+        return of(CertificateChains.parse(pem));
+    }
+
+    /** The trusted certificate entries of {@code keyStore}, e.g. a JKS truststore. */
+    public static TrustBundle of(KeyStore keyStore) throws KeyStoreException {
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (String alias : Collections.list(keyStore.aliases())) {
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (keyStore.isCertificateEntry(alias) && certificate instanceof X509Certificate) {
+                certificates.add((X509Certificate) certificate);
+            }
+        }
+        return of(certificates);
+    }
+
+    /** {@link #read} on the {@link KeyLoaders} executor; large bundles take a while to parse. */
+    public static CompletableFuture<TrustBundle> readAsync(Path bundle) {
+        return KeyLoaders.submit(() -> read(bundle));
+    }
+
+    public CertificateIndex index() {
+        return index;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public IndexedTrustManager getTrustManager() {
+        return trustManager;
+    }
+
+    public TrustManagerFactory getTrustManagerFactory() {
+        return trustManagerFactory;
+    }
+}
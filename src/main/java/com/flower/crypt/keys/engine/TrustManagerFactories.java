@@ -0,0 +1,42 @@
+package com.flower.crypt.keys.engine;
+
+import javax.net.ssl.ManagerFactoryParameters;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.TrustManagerFactorySpi;
+import java.security.KeyStore;
+
+/** Adapts hand-written {@link TrustManager}s to {@link TrustManagerFactory}, as {@link KeyManagerFactories} does for key managers. */
+public final class TrustManagerFactories {
+    public static final String ALGORITHM = "FlowerFixed";
+
+    private TrustManagerFactories() {
+    }
+
+    /** A factory that is already initialized and always returns {@code trustManagers}; {@code init} is a no-op. */
+    public static TrustManagerFactory of(TrustManager... trustManagers) {
+        TrustManager[] managers = trustManagers.clone();
+        return new TrustManagerFactory(new FixedTrustManagerFactorySpi(managers), null, ALGORITHM) { };
+    }
+
+    static final class FixedTrustManagerFactorySpi extends TrustManagerFactorySpi {
+        final TrustManager[] trustManagers;
+
+        FixedTrustManagerFactorySpi(TrustManager[] trustManagers) {
+            this.trustManagers = trustManagers;
+        }
+
+        @Override
+        protected void engineInit(KeyStore ks) {
+        }
+
+        @Override
+        protected void engineInit(ManagerFactoryParameters spec) {
+        }
+
+        @Override
+        protected TrustManager[] engineGetTrustManagers() {
+            return trustManagers.clone();
+        }
+    }
+}
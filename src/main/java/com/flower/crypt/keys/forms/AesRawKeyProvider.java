@@ -1,12 +1,11 @@
 package com.flower.crypt.keys.forms;
 
-import com.flower.crypt.HexTool;
-import com.flower.crypt.keys.Aes256KeyContext;
 import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.engine.AesRawKeyEngine;
+import com.flower.crypt.keys.engine.AesRawKeySpec;
 import javafx.beans.value.ObservableValue;
 import org.apache.commons.lang3.StringUtils;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.AnchorPane;
@@ -14,8 +13,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.io.IOException;
-import java.util.prefs.Preferences;
 
 import static com.flower.crypt.keys.UserPreferencesManager.getUserPreference;
 import static com.flower.crypt.keys.UserPreferencesManager.updateUserPreference;
@@ -32,16 +29,37 @@ public class AesRawKeyProvider extends AnchorPane implements TabKeyProvider {
     @FXML @Nullable CheckBox aes256IvCheckBox;
     @FXML @Nullable TextField aes256IvTextField;
 
+    protected final AesRawKeyEngine engine = new AesRawKeyEngine();
+
     public AesRawKeyProvider() {
-        FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("AesRawKeyProvider.fxml"));
-        fxmlLoader.setRoot(this);
-        fxmlLoader.setController(this);
-
-        try {
-            fxmlLoader.load();
-        } catch (IOException exception) {
-            throw new RuntimeException(exception);
+        engine.setMetricsTag(tabName());
+        FxmlCache.load(this, "AesRawKeyProvider.fxml");
+
+        checkNotNull(aes256KeyTextField).textProperty().addListener(this::keyTextChanged);
+        checkNotNull(aes256IvTextField).textProperty().addListener(this::keyTextChanged);
+        checkNotNull(aes256IvCheckBox).selectedProperty().addListener(this::keyBoolChanged);
+        updateEngineSpec();
+    }
+
+    public AesRawKeyEngine getEngine() {
+        return engine;
+    }
+
+    public void keyTextChanged(ObservableValue<? extends String> observable, String _old, String _new) {
+        updateEngineSpec();
+    }
+
+    public void keyBoolChanged(ObservableValue<? extends Boolean> observable, Boolean _old, Boolean _new) {
+        updateEngineSpec();
+    }
+
+    public void updateEngineSpec() {
+        String aes256HexKey = checkNotNull(aes256KeyTextField).textProperty().get();
+        String aes256HexIv = null;
+        if (checkNotNull(aes256IvCheckBox).selectedProperty().get()) {
+            aes256HexIv = checkNotNull(aes256IvTextField).textProperty().get();
         }
+        engine.setSpec(AesRawKeySpec.of(aes256HexKey, aes256HexIv));
     }
 
     @Override
@@ -56,15 +74,7 @@ public class AesRawKeyProvider extends AnchorPane implements TabKeyProvider {
 
     @Override
     public KeyContext getKeyContext() {
-        String aes256Base64Key = checkNotNull(aes256KeyTextField).textProperty().get();
-        byte[] aes256Key = HexTool.hexStringToByteArray(aes256Base64Key);
-
-        byte[] aes256Iv = null;
-        if (checkNotNull(aes256IvCheckBox).selectedProperty().get()) {
-            String aes256Base64Iv = checkNotNull(aes256IvTextField).textProperty().get();
-            aes256Iv = HexTool.hexStringToByteArray(aes256Base64Iv);
-        }
-        return Aes256KeyContext.of(aes256Key, aes256Iv);
+        return engine.getKeyContext();
     }
 
     @Override
@@ -104,11 +114,9 @@ public class AesRawKeyProvider extends AnchorPane implements TabKeyProvider {
     }
 
     public static void updateAesUserPreferences(String aesKey, String aesIv, String aesIvCheckbox) {
-        Preferences userPreferences = Preferences.userRoot();
-
-        updateUserPreference(userPreferences, AES_KEY, aesKey);
-        updateUserPreference(userPreferences, AES_IV_CHECKBOX, aesIvCheckbox);
-        updateUserPreference(userPreferences, AES_IV, aesIv);
+        updateUserPreference(AES_KEY, aesKey);
+        updateUserPreference(AES_IV_CHECKBOX, aesIvCheckbox);
+        updateUserPreference(AES_IV, aesIv);
     }
 
     public static String aesKey() { return getUserPreference(AES_KEY); }
@@ -0,0 +1,67 @@
+package com.flower.crypt.keys.forms;
+
+import com.google.common.hash.Hashing;
+
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Text for {@link ShowTextDialog}: a one-line summary of a certificate list, and its lines - decoded fields, then
+ * PEM - produced one certificate at a time, so a bundle of hundreds of CAs is only encoded as far as it's read.
+ */
+final class CertificateText {
+    static final Base64.Encoder PEM_ENCODER = Base64.getMimeEncoder(64, new byte[] {'\n'});
+
+    private CertificateText() {
+    }
+
+    static String summary(List<? extends Certificate> certificates) {
+        if (certificates.isEmpty()) {
+            return "No certificates";
+        }
+        Certificate first = certificates.get(0);
+        String description = first instanceof X509Certificate
+                ? ((X509Certificate) first).getSubjectX500Principal().getName()
+                        + ", valid until " + ((X509Certificate) first).getNotAfter().toInstant()
+                : first.getType();
+        return certificates.size() == 1 ? description
+                : certificates.size() + " certificates, first: " + description;
+    }
+
+    static Stream<String> lines(List<? extends Certificate> certificates) {
+        return IntStream.range(0, certificates.size())
+                .boxed()
+                .flatMap(index -> lines(index, certificates.get(index)));
+    }
+
+    static Stream<String> lines(int index, Certificate certificate) {
+        List<String> lines = new ArrayList<>();
+        lines.add("# [" + index + "]");
+        if (certificate instanceof X509Certificate) {
+            X509Certificate x509Certificate = (X509Certificate) certificate;
+            lines.add("#   Subject:     " + x509Certificate.getSubjectX500Principal().getName());
+            lines.add("#   Issuer:      " + x509Certificate.getIssuerX500Principal().getName());
+            lines.add("#   Serial:      " + x509Certificate.getSerialNumber().toString(16));
+            lines.add("#   Not before:  " + x509Certificate.getNotBefore().toInstant());
+            lines.add("#   Not after:   " + x509Certificate.getNotAfter().toInstant());
+            lines.add("#   Key:         " + x509Certificate.getPublicKey().getAlgorithm());
+        }
+        try {
+            byte[] encoded = certificate.getEncoded();
+            lines.add("#   SHA-256:     " + Hashing.sha256().hashBytes(encoded));
+            lines.add("-----BEGIN CERTIFICATE-----");
+            lines.addAll(PEM_ENCODER.encodeToString(encoded).lines().toList());
+            lines.add("-----END CERTIFICATE-----");
+        } catch (CertificateEncodingException e) {
+            lines.add("# Can't encode certificate: " + e);
+        }
+        lines.add("");
+        return lines.stream();
+    }
+}
@@ -0,0 +1,107 @@
+package com.flower.crypt.keys.forms;
+
+import javafx.fxml.FXMLLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Loads the forms' {@code fx:root} FXML. Each form class's FXML is located and read once; later instances load it
+ * from memory, without the resource lookup and I/O. Load times are kept per form, split into the first (cold) load
+ * and later (warm) ones, see {@link #loadTimes()}.
+ */
+public final class FxmlCache {
+    final static Logger LOGGER = LoggerFactory.getLogger(FxmlCache.class);
+
+    static final class Source {
+        final URL location;
+        final byte[] bytes;
+
+        Source(URL location, byte[] bytes) {
+            this.location = location;
+            this.bytes = bytes;
+        }
+    }
+
+    /** Cold and warm load times of one form. */
+    public static final class LoadTimes {
+        volatile long coldNanos;
+        final LongAdder warmLoads = new LongAdder();
+        final LongAdder warmNanos = new LongAdder();
+
+        public long coldMillis() {
+            return coldNanos / 1_000_000;
+        }
+
+        public long warmLoads() {
+            return warmLoads.sum();
+        }
+
+        public double averageWarmMillis() {
+            long loads = warmLoads.sum();
+            return loads == 0 ? 0 : warmNanos.sum() / 1e6 / loads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("cold %d ms, warm %.1f ms avg over %d", coldMillis(), averageWarmMillis(), warmLoads());
+        }
+    }
+
+    static final Map<String, Source> SOURCES = new ConcurrentHashMap<>();
+    static final Map<String, LoadTimes> LOAD_TIMES = new ConcurrentHashMap<>();
+
+    private FxmlCache() {
+    }
+
+    /** Load {@code resource}, relative to {@code root}'s class, with {@code root} as both root and controller. */
+    public static void load(Object root, String resource) {
+        long start = System.nanoTime();
+        String key = root.getClass().getName() + ":" + resource;
+        boolean cold = !SOURCES.containsKey(key);
+        Source source = SOURCES.computeIfAbsent(key, k -> read(root.getClass(), resource));
+
+        FXMLLoader fxmlLoader = new FXMLLoader(source.location);
+        fxmlLoader.setRoot(root);
+        fxmlLoader.setController(root);
+        try {
+            fxmlLoader.load(new ByteArrayInputStream(source.bytes));
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        LoadTimes loadTimes = LOAD_TIMES.computeIfAbsent(key, k -> new LoadTimes());
+        if (cold) {
+            loadTimes.coldNanos = elapsed;
+        } else {
+            loadTimes.warmLoads.increment();
+            loadTimes.warmNanos.add(elapsed);
+        }
+        LOGGER.debug("Loaded {} in {} ms ({})", key, elapsed / 1_000_000, cold ? "cold" : "warm");
+    }
+
+    static Source read(Class<?> owner, String resource) {
+        URL location = checkNotNull(owner.getResource(resource), "FXML not found: %s", resource);
+        try (InputStream stream = location.openStream()) {
+            return new Source(location, stream.readAllBytes());
+        } catch (IOException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /** Load times by {@code <form class>:<fxml>}. */
+    public static Map<String, LoadTimes> loadTimes() {
+        return Collections.unmodifiableMap(LOAD_TIMES);
+    }
+}
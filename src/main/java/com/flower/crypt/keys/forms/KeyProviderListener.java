@@ -0,0 +1,25 @@
+package com.flower.crypt.keys.forms;
+
+import javax.annotation.Nullable;
+
+/**
+ * Receives the providers' success and error messages. Called on the thread that finished the action, usually the
+ * FX thread; implementations must not block it, so scripted and batch use runs without waiting on anyone.
+ * Stock implementations are in {@link KeyProviderListeners}.
+ */
+@FunctionalInterface
+public interface KeyProviderListener {
+    void onNotification(KeyProviderNotification notification);
+
+    default void info(String source, String message) {
+        onNotification(KeyProviderNotification.info(source, message));
+    }
+
+    default void error(String source, String message, @Nullable Throwable error) {
+        onNotification(KeyProviderNotification.error(source, message, error));
+    }
+
+    default void error(String source, Throwable error) {
+        error(source, error.toString(), error);
+    }
+}
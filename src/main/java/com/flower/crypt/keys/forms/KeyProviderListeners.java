@@ -0,0 +1,52 @@
+package com.flower.crypt.keys.forms;
+
+import javafx.application.Platform;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Labeled;
+import javafx.scene.paint.Color;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/** Stock {@link KeyProviderListener}s. */
+public final class KeyProviderListeners {
+    final static Logger LOGGER = LoggerFactory.getLogger(KeyProviderListeners.class);
+
+    /** Drops everything; for headless use. */
+    public static final KeyProviderListener NONE = notification -> { };
+
+    /** Info messages at INFO, errors at WARN with their stack trace. */
+    public static final KeyProviderListener LOG = notification -> {
+        if (notification.kind() == KeyProviderNotification.Kind.ERROR) {
+            LOGGER.warn("{}", notification, notification.error());
+        } else {
+            LOGGER.info("{}", notification);
+        }
+    };
+
+    /** A non-modal alert per message, as the providers used to show; the caller never waits for it to be closed. */
+    public static final KeyProviderListener ALERT = notification -> Platform.runLater(() -> {
+        Alert.AlertType type = notification.kind() == KeyProviderNotification.Kind.ERROR
+                ? Alert.AlertType.ERROR : Alert.AlertType.INFORMATION;
+        new Alert(type, notification.message(), ButtonType.OK).show();
+    });
+
+    private KeyProviderListeners() {
+    }
+
+    /** Shows the latest message in {@code label}, errors in red. */
+    public static KeyProviderListener statusBar(Labeled label) {
+        return notification -> Platform.runLater(() -> {
+            label.setText(notification.toString());
+            label.setTextFill(notification.kind() == KeyProviderNotification.Kind.ERROR ? Color.RED : Color.BLACK);
+        });
+    }
+
+    /** Passes each notification to all of {@code listeners}, in order. */
+    public static KeyProviderListener all(KeyProviderListener... listeners) {
+        List<KeyProviderListener> all = List.of(listeners);
+        return notification -> all.forEach(listener -> listener.onNotification(notification));
+    }
+}
@@ -0,0 +1,53 @@
+package com.flower.crypt.keys.forms;
+
+import javax.annotation.Nullable;
+
+/** Outcome of a provider action, e.g. a file loaded or a key test run, for a {@link KeyProviderListener}. */
+public final class KeyProviderNotification {
+    public enum Kind {
+        INFO,
+        ERROR
+    }
+
+    final String source;
+    final Kind kind;
+    final String message;
+    @Nullable final Throwable error;
+
+    KeyProviderNotification(String source, Kind kind, String message, @Nullable Throwable error) {
+        this.source = source;
+        this.kind = kind;
+        this.message = message;
+        this.error = error;
+    }
+
+    public static KeyProviderNotification info(String source, String message) {
+        return new KeyProviderNotification(source, Kind.INFO, message, null);
+    }
+
+    public static KeyProviderNotification error(String source, String message, @Nullable Throwable error) {
+        return new KeyProviderNotification(source, Kind.ERROR, message, error);
+    }
+
+    /** Tab name of the provider that sent it. */
+    public String source() {
+        return source;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    @Nullable public Throwable error() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return source + ": " + message;
+    }
+}
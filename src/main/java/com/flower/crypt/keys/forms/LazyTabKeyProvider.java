@@ -0,0 +1,176 @@
+package com.flower.crypt.keys.forms;
+
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.RsaKeyProvider;
+import javafx.application.Platform;
+import javafx.scene.layout.AnchorPane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Stands in for a child tab of {@link MultiKeyProvider} until it's first needed, so opening the chooser only builds
+ * the selected tab: the provider, its FXML and its preferences are created when the tab is first selected or its keys
+ * are first asked for. {@link #initPreferences()} and {@link #setNotificationListener} before that are remembered
+ * and applied on creation.
+ * <p>
+ * The provider is a form, so it is always created on the FX thread: a key request from another thread that finds
+ * it missing hands the creation to the FX thread and waits for it. Wrapped providers that aren't
+ * {@link RsaKeyProvider}s fail {@link #getKeyManagerFactory()} with an {@link IllegalStateException}.
+ * <pre>
+ * new MultiKeyProvider(stage, "Keys", List.of(
+ *         LazyTabKeyProvider.of("Raw", RsaRawKeyProvider::new),
+ *         LazyTabKeyProvider.of("Files", () -> new RsaFileKeyProvider(stage))));
+ * </pre>
+ */
+public class LazyTabKeyProvider implements TabKeyProvider, RsaKeyProvider {
+    final static Logger LOGGER = LoggerFactory.getLogger(LazyTabKeyProvider.class);
+
+    protected final String tabName;
+    protected final Supplier<? extends TabKeyProvider> factory;
+
+    @Nullable volatile TabKeyProvider provider;
+    boolean preferencesRequested;
+    @Nullable KeyProviderListener notificationListener;
+    long materializeNanos;
+
+    public LazyTabKeyProvider(String tabName, Supplier<? extends TabKeyProvider> factory) {
+        this.tabName = checkNotNull(tabName);
+        this.factory = checkNotNull(factory);
+    }
+
+    public static LazyTabKeyProvider of(String tabName, Supplier<? extends TabKeyProvider> factory) {
+        return new LazyTabKeyProvider(tabName, factory);
+    }
+
+    public boolean isMaterialized() {
+        return provider != null;
+    }
+
+    /**
+     * The real provider, created (and given its preferences, if already requested) on first call. Off the FX thread
+     * this waits for the FX thread to create it.
+     */
+    public TabKeyProvider materialize() {
+        TabKeyProvider provider = this.provider;
+        if (provider != null) {
+            return provider;
+        }
+        if (Platform.isFxApplicationThread()) {
+            return create();
+        }
+        try {
+            return materializeAsync().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** {@link #materialize()} without waiting: creates the provider on the FX thread, now if called from it. */
+    public CompletableFuture<TabKeyProvider> materializeAsync() {
+        TabKeyProvider provider = this.provider;
+        if (provider != null) {
+            return CompletableFuture.completedFuture(provider);
+        }
+        CompletableFuture<TabKeyProvider> future = new CompletableFuture<>();
+        Runnable create = () -> {
+            try {
+                future.complete(create());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        if (Platform.isFxApplicationThread()) {
+            create.run();
+        } else {
+            Platform.runLater(create);
+        }
+        return future;
+    }
+
+    /** FX thread only. */
+    TabKeyProvider create() {
+        synchronized (this) {
+            TabKeyProvider provider = this.provider;
+            if (provider == null) {
+                long start = System.nanoTime();
+                provider = checkNotNull(factory.get());
+                if (notificationListener != null) {
+                    provider.setNotificationListener(notificationListener);
+                }
+                if (preferencesRequested) {
+                    provider.initPreferences();
+                }
+                materializeNanos = System.nanoTime() - start;
+                this.provider = provider;
+                LOGGER.debug("Created tab {} in {} ms", tabName, materializeNanos / 1_000_000);
+            }
+            return provider;
+        }
+    }
+
+    /** Time it took to create the provider and apply its preferences; 0 until then. */
+    public synchronized long materializeMillis() {
+        return materializeNanos / 1_000_000;
+    }
+
+    @Override
+    public String tabName() {
+        return tabName;
+    }
+
+    @Override
+    public AnchorPane tabContent() {
+        return materialize().tabContent();
+    }
+
+    @Override
+    public void initPreferences() {
+        TabKeyProvider provider;
+        synchronized (this) {
+            provider = this.provider;
+            if (provider == null) {
+                preferencesRequested = true;
+                return;
+            }
+        }
+        provider.initPreferences();
+    }
+
+    @Override
+    public void setNotificationListener(KeyProviderListener listener) {
+        TabKeyProvider provider;
+        synchronized (this) {
+            provider = this.provider;
+            if (provider == null) {
+                notificationListener = listener;
+                return;
+            }
+        }
+        provider.setNotificationListener(listener);
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        return materialize().getKeyContext();
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        TabKeyProvider provider = materialize();
+        checkState(provider instanceof RsaKeyProvider, "Tab %s doesn't provide RSA keys", tabName);
+        return ((RsaKeyProvider) provider).getKeyManagerFactory();
+    }
+}
@@ -2,8 +2,9 @@ package com.flower.crypt.keys.forms;
 
 import com.flower.crypt.keys.KeyContext;
 import com.flower.crypt.keys.RsaKeyProvider;
+import com.flower.crypt.keys.engine.SniKeyManager;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
+import javafx.scene.control.SingleSelectionModel;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.scene.layout.AnchorPane;
@@ -13,16 +14,53 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.KeyManagerFactory;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Tabs of child providers. By default the selected tab provides the keys; in multi-identity mode
+ * ({@link #setMultiIdentity}) {@link #getKeyManagerFactory()} serves every child {@link RsaKeyProvider} at once
+ * through an {@link SniKeyManager}, picking the certificate per handshake by SNI hostname.
+ * Children wrapped in {@link LazyTabKeyProvider} are only built when their tab is first selected.
+ * <p>
+ * {@link #getKeyManagerFactory()} and {@link #getKeyContext()} are safe to call from any thread, e.g. from network
+ * threads during handshakes: they never touch the tab pane. The selected provider is kept in a volatile field that
+ * only the FX thread writes, from a listener on the tab selection, so dispatch costs one volatile read.
+ */
 public class MultiKeyProvider extends AnchorPane implements TabKeyProvider, RsaKeyProvider {
     final static Logger LOGGER = LoggerFactory.getLogger(MultiKeyProvider.class);
 
+    /** Composite key manager factory and the child factories it was built from. */
+    static final class MultiIdentity {
+        final List<KeyManagerFactory> sources;
+        final SniKeyManager keyManager;
+        final KeyManagerFactory factory;
+
+        MultiIdentity(List<KeyManagerFactory> sources) {
+            this.sources = sources;
+            this.keyManager = SniKeyManager.ofFactories(sources);
+            this.factory = keyManager.asFactory();
+        }
+
+        /** Child factories come from {@code KeyManagerFactoryCache}: unchanged key material, same instances. */
+        boolean builtFrom(List<KeyManagerFactory> sources) {
+            if (sources.size() != this.sources.size()) {
+                return false;
+            }
+            for (int i = 0; i < sources.size(); i++) {
+                if (sources.get(i) != this.sources.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     @Nullable @FXML TabPane childProvidersTabPane;
 
     protected final String tabName;
@@ -30,43 +68,106 @@ public class MultiKeyProvider extends AnchorPane implements TabKeyProvider, RsaK
     protected final Collection<TabKeyProvider> childKeyProviders;
     protected final Stage mainStage;
 
+    /** Provider of the selected tab; written only on the FX thread. */
+    @Nullable volatile TabKeyProvider selectedProvider;
+    volatile boolean multiIdentity;
+    @Nullable volatile MultiIdentity currentMultiIdentity;
+
     public MultiKeyProvider(Stage mainStage, String tabName, Collection<TabKeyProvider> childKeyProviders) {
         providerMap = new HashMap<>();
 
-        FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("MultiKeyProvider.fxml"));
-        fxmlLoader.setRoot(this);
-        fxmlLoader.setController(this);
-
-        try {
-            fxmlLoader.load();
-        } catch (IOException exception) {
-            throw new RuntimeException(exception);
-        }
+        FxmlCache.load(this, "MultiKeyProvider.fxml");
 
         this.mainStage = mainStage;
         this.tabName = tabName;
         this.childKeyProviders = childKeyProviders;
 
         childKeyProviders.forEach(prov -> providerMap.put(addTab(prov), prov));
-        checkNotNull(childProvidersTabPane).getSelectionModel().select(0);
+        SingleSelectionModel<Tab> selectionModel = checkNotNull(childProvidersTabPane).getSelectionModel();
+        selectionModel.selectedItemProperty().addListener((observable, oldTab, newTab) -> tabSelected(newTab));
+        if (selectionModel.isEmpty()) {
+            selectionModel.select(0);
+        }
+        // The tab pane selected the first tab by itself when it was added, before the listener existed.
+        tabSelected(selectionModel.getSelectedItem());
     }
 
     public TabPane getChildProvidersTabPane() {
         return checkNotNull(childProvidersTabPane);
     }
 
+    /** Add a tab for {@code tabKeyProvider}; a {@link LazyTabKeyProvider} gets its content when first selected. */
     public Tab addTab(TabKeyProvider tabKeyProvider) {
         String tabName = tabKeyProvider.tabName();
-        AnchorPane tabContent = tabKeyProvider.tabContent();
 
-        final Tab tab = new Tab(tabName, tabContent);
+        final Tab tab = new Tab(tabName);
+        if (!(tabKeyProvider instanceof LazyTabKeyProvider) || ((LazyTabKeyProvider) tabKeyProvider).isMaterialized()) {
+            tab.setContent(tabKeyProvider.tabContent());
+        }
         checkNotNull(childProvidersTabPane).getTabs().add(tab);
         return tab;
     }
 
+    void tabSelected(@Nullable Tab tab) {
+        TabKeyProvider provider = tab == null ? null : providerMap.get(tab);
+        if (tab != null && provider != null && tab.getContent() == null) {
+            tab.setContent(provider.tabContent());
+        }
+        selectedProvider = provider;
+    }
+
+    public boolean isMultiIdentity() {
+        return multiIdentity;
+    }
+
+    /**
+     * Serve all child identities, chosen by SNI, instead of only the selected tab's. Turning it on starts creating
+     * the lazy tabs not built yet on the FX thread; each one joins once it exists.
+     */
+    public void setMultiIdentity(boolean multiIdentity) {
+        this.multiIdentity = multiIdentity;
+        if (multiIdentity) {
+            for (TabKeyProvider child : childKeyProviders) {
+                if (child instanceof LazyTabKeyProvider) {
+                    ((LazyTabKeyProvider) child).materializeAsync();
+                }
+            }
+        }
+    }
+
+    /**
+     * One factory over the identities of all child {@link RsaKeyProvider}s, in tab order; children without key
+     * material are left out, and so are lazy tabs not created yet - building forms is left to the FX thread, not
+     * to the handshake asking. The composite and its hostname index are rebuilt only when a child's key changes.
+     */
+    public KeyManagerFactory getMultiIdentityKeyManagerFactory() {
+        List<KeyManagerFactory> sources = new ArrayList<>();
+        for (TabKeyProvider child : childKeyProviders) {
+            if (child instanceof LazyTabKeyProvider && !((LazyTabKeyProvider) child).isMaterialized()) {
+                continue;
+            }
+            TabKeyProvider provider = child instanceof LazyTabKeyProvider
+                    ? ((LazyTabKeyProvider) child).materialize() : child;
+            if (provider instanceof RsaKeyProvider) {
+                try {
+                    sources.add(((RsaKeyProvider) provider).getKeyManagerFactory());
+                } catch (RuntimeException e) {
+                    LOGGER.debug("{} has no key material, leaving it out of {}", child.tabName(), tabName, e);
+                }
+            }
+        }
+
+        MultiIdentity current = currentMultiIdentity;
+        if (current == null || !current.builtFrom(sources)) {
+            current = new MultiIdentity(sources);
+            currentMultiIdentity = current;
+        }
+        return current.factory;
+    }
+
+    /** Provider of the selected tab, as of the last selection change; callable from any thread. */
     protected TabKeyProvider getSelectedProvider() {
-        Tab selectedTab = checkNotNull(childProvidersTabPane).getSelectionModel().getSelectedItem();
-        return checkNotNull(providerMap.get(selectedTab));
+        return checkNotNull(selectedProvider, "No key provider tab selected");
     }
 
     @Override
@@ -90,5 +191,15 @@ public class MultiKeyProvider extends AnchorPane implements TabKeyProvider, RsaK
     }
 
     @Override
-    public KeyManagerFactory getKeyManagerFactory() { return ((RsaKeyProvider)getSelectedProvider()).getKeyManagerFactory(); }
+    public void setNotificationListener(KeyProviderListener listener) {
+        childKeyProviders.forEach(child -> child.setNotificationListener(listener));
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        if (multiIdentity) {
+            return getMultiIdentityKeyManagerFactory();
+        }
+        return ((RsaKeyProvider)getSelectedProvider()).getKeyManagerFactory();
+    }
 }
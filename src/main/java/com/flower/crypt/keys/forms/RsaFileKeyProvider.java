@@ -1,14 +1,14 @@
 package com.flower.crypt.keys.forms;
 
 import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.engine.KeyFileWatcher;
+import com.flower.crypt.keys.engine.RsaFileKeyEngine;
+import com.flower.crypt.keys.engine.RsaFileKeySpec;
+import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
-import com.flower.crypt.keys.RsaKeyContext;
-import com.flower.crypt.PkiUtil;
-import com.flower.crypt.keys.RsaKeyProvider;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.control.Alert;
-import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
@@ -21,22 +21,15 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.net.ssl.KeyManagerFactory;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
-import java.security.cert.X509Certificate;
-import java.security.spec.InvalidKeySpecException;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.prefs.Preferences;
 
 import static com.flower.crypt.keys.UserPreferencesManager.getUserPreference;
 import static com.flower.crypt.keys.UserPreferencesManager.updateUserPreference;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, RsaKeyProvider {
+public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, ReloadableRsaKeyProvider {
     final static Logger LOGGER = LoggerFactory.getLogger(RsaFileKeyProvider.class);
 
     final static String FILE_CERTIFICATE = "flowerCertificateChooserFileCertificate";
@@ -44,57 +37,43 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
 
     @FXML @Nullable TextField fileCertificateTextField;
     @FXML @Nullable TextField filePrivateKeyTextField;
-
-    @Nullable Certificate fileCertificate;
-    @Nullable PrivateKey fileKey;
+    @FXML @Nullable CheckBox watchFilesCheckBox;
 
     protected final Stage mainStage;
 
-    final AtomicReference<FileKeyManager> currentKeyManager = new AtomicReference<>(null);
-    static final class FileKeyManager {
-        final Certificate fileCertificate;
-        final PrivateKey fileKey;
-        final KeyManagerFactory keyManagerFactory;
-
-        FileKeyManager(Certificate fileCertificate, PrivateKey fileKey, KeyManagerFactory keyManagerFactory) {
-            this.fileCertificate = fileCertificate;
-            this.fileKey = fileKey;
-            this.keyManagerFactory = keyManagerFactory;
-        }
-
-        public boolean sameContext(Certificate fileCertificate, PrivateKey fileKey) {
-            return Objects.equals(fileCertificate, this.fileCertificate)
-                    && Objects.equals(fileKey, this.fileKey);
-        }
-    }
+    protected final RsaFileKeyEngine engine = new RsaFileKeyEngine();
+    volatile KeyProviderListener notificationListener = KeyProviderListeners.ALERT;
+    /** Files of the last successful loads, which the watcher follows. */
+    @Nullable File loadedCertificateFile;
+    @Nullable File loadedPrivateKeyFile;
+    /** Running while watching is on and both files are loaded. */
+    @Nullable KeyFileWatcher fileWatcher;
 
     public RsaFileKeyProvider(Stage mainStage) {
-        FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("RsaFileKeyProvider.fxml"));
-        fxmlLoader.setRoot(this);
-        fxmlLoader.setController(this);
-
-        try {
-            fxmlLoader.load();
-        } catch (IOException exception) {
-            throw new RuntimeException(exception);
-        }
+        engine.setMetricsTag(tabName());
+        FxmlCache.load(this, "RsaFileKeyProvider.fxml");
 
         this.mainStage = mainStage;
     }
 
+    public RsaFileKeyEngine getEngine() {
+        return engine;
+    }
+
     public void testFileKeys() {
         try {
+            Certificate fileCertificate = engine.getCertificate();
+            PrivateKey fileKey = engine.getPrivateKey();
             if (fileCertificate == null) {
                 throw new RuntimeException("Certificate not loaded");
             }
             if (fileKey == null) {
                 throw new RuntimeException("Key not loaded");
             }
-            RsaRawKeyProvider.testKeys(fileCertificate, fileKey);
+            RsaRawKeyProvider.testKeys(fileCertificate, fileKey, tabName(), notificationListener);
         } catch (Exception e) {
             LOGGER.error("File keys test error", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
@@ -111,15 +90,28 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
             loadCertificateFromFile(certificateFile);
         } catch (Exception e) {
             LOGGER.error("Error opening certificate file", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
-    protected void loadCertificateFromFile(File certificateFile) throws IOException {
-        fileCertificate = PkiUtil.getCertificateFromStream(new FileInputStream(certificateFile));
-        Alert alert = new Alert(Alert.AlertType.INFORMATION, "Certificate successfully loaded: " + certificateFile.getPath(), ButtonType.OK);
-        alert.showAndWait();
+    /**
+     * Loads on the key loader executor; the result is reported back on the FX thread. The file watcher is stopped
+     * for the load and started again afterwards, on the new file if the load succeeded.
+     */
+    protected void loadCertificateFromFile(File certificateFile) {
+        stopFileWatcher();
+        engine.loadCertificateAsync(certificateFile).whenComplete((certificate, e) -> Platform.runLater(() -> {
+            if (e != null) {
+                LOGGER.error("Error loading certificate from file", e);
+                notificationListener.error(tabName(), e);
+            } else {
+                loadedCertificateFile = certificateFile;
+                int chainLength = engine.getCertificateChain().size();
+                notificationListener.info(tabName(), "Certificate successfully loaded: " + certificateFile.getPath()
+                        + (chainLength > 1 ? " (chain of " + chainLength + ")" : ""));
+            }
+            restartFileWatcher();
+        }));
     }
 
     public void openPrivateKeyFile() {
@@ -135,15 +127,65 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
             loadPrivateKeyFromFile(keyFile);
         } catch (Exception e) {
             LOGGER.error("Error opening private key file", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
+        }
+    }
+
+    /** Loads like {@link #loadCertificateFromFile}. */
+    protected void loadPrivateKeyFromFile(File keyFile) {
+        stopFileWatcher();
+        engine.loadPrivateKeyAsync(keyFile).whenComplete((key, e) -> Platform.runLater(() -> {
+            if (e != null) {
+                LOGGER.error("Error loading private key from file", e);
+                notificationListener.error(tabName(), e);
+            } else {
+                loadedPrivateKeyFile = keyFile;
+                notificationListener.info(tabName(), "Key successfully loaded: " + keyFile.getPath());
+            }
+            restartFileWatcher();
+        }));
+    }
+
+    public void watchFilesChanged() {
+        restartFileWatcher();
+    }
+
+    /** Opt in to reloading the keys whenever the loaded certificate or key file changes on disk; off by default. */
+    public void setWatchFiles(boolean watchFiles) {
+        checkNotNull(watchFilesCheckBox).setSelected(watchFiles);
+        restartFileWatcher();
+    }
+
+    public boolean isWatchingFiles() {
+        return fileWatcher != null;
+    }
+
+    /** Stop the current watcher and start one on the loaded files if watching is on and both are loaded. */
+    protected void restartFileWatcher() {
+        stopFileWatcher();
+        File certificateFile = loadedCertificateFile;
+        File keyFile = loadedPrivateKeyFile;
+        if (!checkNotNull(watchFilesCheckBox).isSelected() || certificateFile == null || keyFile == null) {
+            return;
+        }
+        try {
+            fileWatcher = KeyFileWatcher.start(engine, RsaFileKeySpec.of(certificateFile, keyFile));
+        } catch (Exception e) {
+            LOGGER.error("Error watching key files", e);
+            notificationListener.error(tabName(), e);
         }
     }
 
-    protected void loadPrivateKeyFromFile(File keyFile) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
-        fileKey = PkiUtil.getPrivateKeyFromStream(new FileInputStream(keyFile));
-        Alert alert = new Alert(Alert.AlertType.INFORMATION, "Key successfully loaded: " + keyFile.getPath(), ButtonType.OK);
-        alert.showAndWait();
+    protected void stopFileWatcher() {
+        KeyFileWatcher watcher = fileWatcher;
+        fileWatcher = null;
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                LOGGER.warn("Error closing key file watcher", e);
+            }
+        }
     }
 
     public void loadCertificateFileKey(KeyEvent event) {
@@ -153,8 +195,7 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
             }
         } catch (Exception e) {
             LOGGER.error("Error loading certificate from file", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
@@ -165,8 +206,7 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
             }
         } catch (Exception e) {
             LOGGER.error("Error loading private key from file", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
@@ -176,8 +216,7 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
             loadCertificateFromFile(certificateFile);
         } catch (Exception e) {
             LOGGER.error("Error loading certificate from file", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
@@ -187,11 +226,15 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
             loadPrivateKeyFromFile(keyFile);
         } catch (Exception e) {
             LOGGER.error("Error loading private key from file", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
+    @Override
+    public void setNotificationListener(KeyProviderListener listener) {
+        this.notificationListener = checkNotNull(listener);
+    }
+
     @Override
     public String tabName() {
         return "Files";
@@ -204,44 +247,17 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
 
     @Override
     public KeyManagerFactory getKeyManagerFactory() {
-        try {
-            if (fileCertificate == null) {
-                throw new RuntimeException("Certificate not loaded");
-            }
-            if (fileKey == null) {
-                throw new RuntimeException("Key not loaded");
-            }
+        return engine.getKeyManagerFactory();
+    }
 
-            while (true) {
-                FileKeyManager keyManager = currentKeyManager.get();
-                if (keyManager != null && keyManager.sameContext(fileCertificate, fileKey)) {
-                    return keyManager.keyManagerFactory;
-                } else {
-                    KeyManagerFactory keyManagerFactory = PkiUtil.getKeyManagerFromCertAndPrivateKey((X509Certificate)fileCertificate, fileKey);
-                    FileKeyManager newKeyManager = new FileKeyManager(fileCertificate, fileKey, keyManagerFactory);
-                    if (currentKeyManager.compareAndSet(keyManager, newKeyManager)) {
-                        return keyManagerFactory;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return engine.getReloadableKeyManagerFactory();
     }
 
     @Override
     public KeyContext getKeyContext() {
-        try {
-            if (fileCertificate == null) {
-                throw new RuntimeException("Certificate not loaded");
-            }
-            if (fileKey == null) {
-                throw new RuntimeException("Key not loaded");
-            }
-            return RsaKeyContext.of(fileCertificate.getPublicKey(), fileKey, (X509Certificate)fileCertificate);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return engine.getKeyContext();
     }
 
     @Override
@@ -270,10 +286,8 @@ public class RsaFileKeyProvider extends AnchorPane implements TabKeyProvider, Rs
     }
 
     public static void updateFileUserPreferences(String fileCertificate, String filePrivateKey) {
-        Preferences userPreferences = Preferences.userRoot();
-
-        updateUserPreference(userPreferences, FILE_CERTIFICATE, fileCertificate);
-        updateUserPreference(userPreferences, FILE_PRIVATE_KEY, filePrivateKey);
+        updateUserPreference(FILE_CERTIFICATE, fileCertificate);
+        updateUserPreference(FILE_PRIVATE_KEY, filePrivateKey);
     }
 
     public static String fileCertificate() { return getUserPreference(FILE_CERTIFICATE); }
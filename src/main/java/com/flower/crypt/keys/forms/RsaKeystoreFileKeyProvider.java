@@ -0,0 +1,263 @@
+package com.flower.crypt.keys.forms;
+
+import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.engine.KeystoreIndex;
+import com.flower.crypt.keys.engine.RsaKeystoreFileKeyEngine;
+import com.flower.fxutils.ModalWindow;
+import javafx.application.Platform;
+import javafx.beans.value.ObservableValue;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
+import javafx.fxml.FXML;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.PasswordField;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.AnchorPane;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.net.ssl.KeyManagerFactory;
+import java.io.File;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.flower.crypt.keys.UserPreferencesManager.getUserPreference;
+import static com.flower.crypt.keys.UserPreferencesManager.updateUserPreference;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+public class RsaKeystoreFileKeyProvider extends AnchorPane implements TabKeyProvider, ReloadableRsaKeyProvider {
+    final static Logger LOGGER = LoggerFactory.getLogger(RsaKeystoreFileKeyProvider.class);
+
+    final static String KEYSTORE_FILE = "flowerCertificateChooserKeystoreFile";
+    final static String KEYSTORE_ALIAS = "flowerCertificateChooserKeystoreAlias";
+
+    @FXML @Nullable TextField keystoreFileTextField;
+    @FXML @Nullable PasswordField keystorePasswordField;
+    @FXML @Nullable ComboBox<String> aliasesComboBox;
+    @FXML @Nullable Label keystoreStatusLabel;
+
+    protected final Stage mainStage;
+
+    protected final RsaKeystoreFileKeyEngine engine = new RsaKeystoreFileKeyEngine();
+    volatile KeyProviderListener notificationListener = KeyProviderListeners.ALERT;
+    /** Load in progress, if any. */
+    @Nullable CompletableFuture<KeystoreIndex> pendingLoad;
+    /** Key preparation for the last alias selected, if still running. */
+    @Nullable CompletableFuture<String> pendingSelection;
+
+    public RsaKeystoreFileKeyProvider(Stage mainStage) {
+        engine.setMetricsTag(tabName());
+        FxmlCache.load(this, "RsaKeystoreFileKeyProvider.fxml");
+
+        this.mainStage = mainStage;
+
+        checkNotNull(aliasesComboBox).valueProperty().addListener(this::aliasChanged);
+    }
+
+    public RsaKeystoreFileKeyEngine getEngine() {
+        return engine;
+    }
+
+    /** Decrypting the key and building its factory happen on the key loader executor, never on the FX thread. */
+    public void aliasChanged(ObservableValue<? extends String> observable, String _old, String _new) {
+        CompletableFuture<String> previousSelection = pendingSelection;
+        if (previousSelection != null) {
+            previousSelection.cancel(true);
+        }
+        CompletableFuture<String> selection = engine.selectAliasAsync(_new);
+        pendingSelection = selection;
+        selection.whenComplete((alias, e) -> Platform.runLater(() -> {
+            if (pendingSelection == selection) {
+                pendingSelection = null;
+            }
+            if (e != null && !selection.isCancelled()) {
+                LOGGER.error("Error preparing keystore alias {}", _new, e);
+                notificationListener.error(tabName(), e);
+            }
+        }));
+    }
+
+    public void testKeystoreKeys() {
+        try {
+            if (!engine.isLoaded()) {
+                throw new RuntimeException("Keystore not loaded");
+            }
+            String alias = checkNotNull(aliasesComboBox).getValue();
+            X509Certificate certificate = engine.getCertificateChain(alias).get(0);
+            PrivateKey key = engine.getPrivateKey(alias);
+
+            RsaRawKeyProvider.testKeys(certificate, key, tabName(), notificationListener);
+        } catch (Exception e) {
+            LOGGER.error("Keystore keys test error", e);
+            notificationListener.error(tabName(), e);
+        }
+    }
+
+    public void openKeystoreFile() {
+        try {
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.getExtensionFilters().addAll(
+                    new FileChooser.ExtensionFilter("Keystore (*.p12, *.pfx, *.jks)", "*.p12", "*.pfx", "*.jks"));
+            fileChooser.setTitle("Open Keystore");
+            File keystoreFile = fileChooser.showOpenDialog(checkNotNull(mainStage));
+            if (keystoreFile == null) { return; }
+
+            checkNotNull(keystoreFileTextField).textProperty().set(keystoreFile.getPath());
+            checkNotNull(keystorePasswordField).requestFocus();
+        } catch (Exception e) {
+            LOGGER.error("Error opening keystore file", e);
+            notificationListener.error(tabName(), e);
+        }
+    }
+
+    public void loadKeystoreFileKey(KeyEvent event) {
+        try {
+            if (event.getCode() == KeyCode.ENTER) {
+                loadKeystoreFile();
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error loading keystore", e);
+            notificationListener.error(tabName(), e);
+        }
+    }
+
+    /**
+     * Reads and indexes the store on the key loader executor and fills the alias combo box when done.
+     * Pressing Load again while a load is still running cancels the earlier one.
+     */
+    public void loadKeystoreFile() {
+        try {
+            String keystorePath = checkNotNull(keystoreFileTextField).textProperty().get();
+            String password = checkNotNull(keystorePasswordField).textProperty().get();
+
+            if (StringUtils.isBlank(keystorePath)) {
+                notificationListener.error(tabName(), "Keystore path is empty", null);
+                return;
+            }
+
+            CompletableFuture<KeystoreIndex> previousLoad = pendingLoad;
+            if (previousLoad != null) {
+                previousLoad.cancel(true);
+            }
+            CompletableFuture<KeystoreIndex> load = engine.loadAsync(new File(keystorePath), password,
+                    (stage, done, total) -> LOGGER.info("Keystore load {}/{}: {}", done, total, stage));
+            pendingLoad = load;
+            load.whenComplete((index, e) -> Platform.runLater(() -> {
+                if (pendingLoad == load) {
+                    pendingLoad = null;
+                }
+                if (load.isCancelled()) {
+                    return;
+                }
+                if (e != null) {
+                    LOGGER.error("Error loading keystore", e);
+                    notificationListener.error(tabName(), e);
+                } else {
+                    showLoadedAliases(index);
+                }
+            }));
+        } catch (Exception e) {
+            LOGGER.error("Error loading keystore", e);
+            notificationListener.error(tabName(), e);
+        }
+    }
+
+    protected void showLoadedAliases(KeystoreIndex index) {
+        List<String> aliases = engine.getAliases();
+        String selected = engine.getAlias();
+
+        checkNotNull(aliasesComboBox).getItems().setAll(aliases);
+        if (selected != null) {
+            checkNotNull(aliasesComboBox).valueProperty().set(selected);
+        }
+        checkNotNull(keystoreStatusLabel).setText(index.size() + " entries, " + aliases.size() + " with a private key");
+
+        notificationListener.info(tabName(), "Keystore successfully loaded");
+    }
+
+    public void showCertificate() {
+        try {
+            String alias = checkNotNull(aliasesComboBox).getValue();
+            List<X509Certificate> chain = engine.getCertificateChain(alias);
+            ShowTextDialog dialog = new ShowTextDialog(CertificateText.summary(chain), () -> CertificateText.lines(chain));
+            ModalWindow.showModal(checkNotNull(mainStage),
+                    stage -> { dialog.setStage(stage); return dialog; },
+                    "Certificate: " + alias);
+        } catch (Exception e) {
+            LOGGER.error("Error showing certificate: ", e);
+            notificationListener.error(tabName(), "Error showing certificate: " + e, e);
+        }
+    }
+
+    @Override
+    public void setNotificationListener(KeyProviderListener listener) {
+        this.notificationListener = checkNotNull(listener);
+    }
+
+    @Override
+    public String tabName() {
+        return "Keystore";
+    }
+
+    @Override
+    public AnchorPane tabContent() {
+        return this;
+    }
+
+    @Override
+    public KeyManagerFactory getKeyManagerFactory() {
+        return engine.getKeyManagerFactory();
+    }
+
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return engine.getReloadableKeyManagerFactory();
+    }
+
+    @Override
+    public KeyContext getKeyContext() {
+        return engine.getKeyContext();
+    }
+
+    @Override
+    public void initPreferences() {
+        loadCertificateChooserPreferences();
+        setCertificateChooserPreferencesHandlers();
+    }
+
+    /** The password isn't stored; the alias is re-selected once the store is loaded again. */
+    public void loadCertificateChooserPreferences() {
+        checkNotNull(keystoreFileTextField).textProperty().set(keystoreFile());
+        engine.selectAliasAsync(StringUtils.defaultIfBlank(keystoreAlias(), null));
+    }
+    public void setCertificateChooserPreferencesHandlers() {
+        checkNotNull(keystoreFileTextField).textProperty().addListener(this::certificateChooserTextChanged);
+        checkNotNull(aliasesComboBox).valueProperty().addListener(this::certificateChooserTextChanged);
+    }
+
+    public void certificateChooserTextChanged(ObservableValue<? extends String> observable, String _old, String _new) {
+        updateCertificateChooserPreferences();
+    }
+
+    public void updateCertificateChooserPreferences() {
+        String keystoreFile = checkNotNull(keystoreFileTextField).textProperty().get();
+        String keystoreAlias = checkNotNull(aliasesComboBox).valueProperty().get();
+        updateKeystoreUserPreferences(keystoreFile, keystoreAlias);
+    }
+
+    public static void updateKeystoreUserPreferences(String keystoreFile, String keystoreAlias) {
+        updateUserPreference(KEYSTORE_FILE, keystoreFile);
+        updateUserPreference(KEYSTORE_ALIAS, keystoreAlias);
+    }
+
+    public static String keystoreFile() { return getUserPreference(KEYSTORE_FILE); }
+    public static String keystoreAlias() { return getUserPreference(KEYSTORE_ALIAS); }
+}
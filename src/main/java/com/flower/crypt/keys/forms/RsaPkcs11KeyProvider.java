@@ -1,17 +1,16 @@
 package com.flower.crypt.keys.forms;
 
 import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.engine.Pkcs11TokenIndex;
+import com.flower.crypt.keys.engine.RsaPkcs11KeyEngine;
 import com.flower.fxutils.ModalWindow;
+import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
 import javafx.stage.Stage;
 import org.apache.commons.lang3.StringUtils;
-import com.flower.crypt.keys.RsaKeyContext;
-import com.flower.crypt.keys.RsaKeyProvider;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
 import com.flower.crypt.PkiUtil;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.control.Alert;
-import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.PasswordField;
 import javafx.scene.control.TextField;
@@ -21,24 +20,18 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.net.ssl.KeyManagerFactory;
-import java.io.IOException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
-import java.security.cert.X509Certificate;
 import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.prefs.Preferences;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static com.flower.crypt.keys.UserPreferencesManager.getUserPreference;
 import static com.flower.crypt.keys.UserPreferencesManager.updateUserPreference;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class RsaPkcs11KeyProvider extends AnchorPane implements TabKeyProvider, RsaKeyProvider {
+public class RsaPkcs11KeyProvider extends AnchorPane implements TabKeyProvider, ReloadableRsaKeyProvider {
     final static Logger LOGGER = LoggerFactory.getLogger(RsaPkcs11KeyProvider.class);
 
     final static String PKCS11_LIBRARY_PATH = "flowerCertificateChooserPkcs11LibraryPath";
@@ -50,57 +43,54 @@ public class RsaPkcs11KeyProvider extends AnchorPane implements TabKeyProvider,
     @FXML @Nullable ComboBox<String> certificatesComboBox;
     @FXML @Nullable ComboBox<String> privateKeysComboBox;
 
-    @Nullable KeyStore pkcs11KeyStore;
     protected final Stage mainStage;
 
-    final AtomicReference<Pkcs11KeyManager> currentKeyManager = new AtomicReference<>(null);
-    static final class Pkcs11KeyManager {
-        final KeyStore pkcs11KeyStore;
-        final KeyManagerFactory keyManagerFactory;
+    protected final RsaPkcs11KeyEngine engine = new RsaPkcs11KeyEngine();
+    volatile KeyProviderListener notificationListener = KeyProviderListeners.ALERT;
+    /** Load in progress, if any. */
+    @Nullable CompletableFuture<Pkcs11TokenIndex> pendingLoad;
 
-        Pkcs11KeyManager(KeyStore pkcs11KeyStore, KeyManagerFactory keyManagerFactory) {
-            this.pkcs11KeyStore = pkcs11KeyStore;
-            this.keyManagerFactory = keyManagerFactory;
-        }
+    public RsaPkcs11KeyProvider(Stage mainStage) {
+        engine.setMetricsTag(tabName());
+        FxmlCache.load(this, "RsaPkcs11KeyProvider.fxml");
 
-        public boolean sameContext(KeyStore pkcs11KeyStore) {
-            return Objects.equals(pkcs11KeyStore, this.pkcs11KeyStore);
-        }
-    }
+        this.mainStage = mainStage;
 
-    public RsaPkcs11KeyProvider(Stage mainStage) {
-        FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("RsaPkcs11KeyProvider.fxml"));
-        fxmlLoader.setRoot(this);
-        fxmlLoader.setController(this);
+        checkNotNull(certificatesComboBox).valueProperty().addListener(this::aliasChanged);
+        checkNotNull(privateKeysComboBox).valueProperty().addListener(this::aliasChanged);
+    }
 
-        try {
-            fxmlLoader.load();
-        } catch (IOException exception) {
-            throw new RuntimeException(exception);
-        }
+    public RsaPkcs11KeyEngine getEngine() {
+        return engine;
+    }
 
-        this.mainStage = mainStage;
+    public void aliasChanged(ObservableValue<? extends String> observable, String _old, String _new) {
+        engine.selectAliases(checkNotNull(certificatesComboBox).getValue(), checkNotNull(privateKeysComboBox).getValue());
     }
 
     public void testPkcs11Keys() {
         try {
-            if (pkcs11KeyStore == null) {
+            if (!engine.isLoaded()) {
                 throw new RuntimeException("PKCS#11 store not loaded");
             }
             String certAlias = checkNotNull(certificatesComboBox).getValue();
             String keyAlias = checkNotNull(privateKeysComboBox).getValue();
 
-            Certificate certificate = PkiUtil.getCertificateFromKeyStore(checkNotNull(pkcs11KeyStore), certAlias);
-            PrivateKey key = (PrivateKey)PkiUtil.getKeyFromKeyStore(pkcs11KeyStore, keyAlias);
+            Certificate certificate = engine.getCertificate(certAlias);
+            PrivateKey key = engine.getPrivateKey(keyAlias);
 
-            RsaRawKeyProvider.testKeys(certificate, key);
+            RsaRawKeyProvider.testKeys(certificate, key, tabName(), notificationListener);
         } catch (Exception e) {
             LOGGER.error("PKCS11 keys test error", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
+    @Override
+    public void setNotificationListener(KeyProviderListener listener) {
+        this.notificationListener = checkNotNull(listener);
+    }
+
     @Override
     public String tabName() {
         return "PKCS#11";
@@ -113,86 +103,86 @@ public class RsaPkcs11KeyProvider extends AnchorPane implements TabKeyProvider,
 
     @Override
     public KeyManagerFactory getKeyManagerFactory() {
-        if (pkcs11KeyStore == null) {
-            throw new RuntimeException("PKCS#11 store not loaded");
-        }
+        return engine.getKeyManagerFactory();
+    }
 
-        while (true) {
-            Pkcs11KeyManager keyManager = currentKeyManager.get();
-            if (keyManager != null && keyManager.sameContext(pkcs11KeyStore)) {
-                return keyManager.keyManagerFactory;
-            } else {
-                try {
-                    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-                    keyManagerFactory.init(pkcs11KeyStore, null);
-                    Pkcs11KeyManager newKeyManager = new Pkcs11KeyManager(pkcs11KeyStore, keyManagerFactory);
-                    if (currentKeyManager.compareAndSet(keyManager, newKeyManager)) {
-                        return keyManagerFactory;
-                    }
-                } catch (NoSuchAlgorithmException | UnrecoverableKeyException | KeyStoreException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return engine.getReloadableKeyManagerFactory();
     }
 
     @Override
     public KeyContext getKeyContext() {
-        if (pkcs11KeyStore == null) {
-            throw new RuntimeException("PKCS#11 store not loaded");
-        }
-        String certAlias = checkNotNull(certificatesComboBox).getValue();
-        String keyAlias = checkNotNull(privateKeysComboBox).getValue();
-
-        Certificate certificate = PkiUtil.getCertificateFromKeyStore(checkNotNull(pkcs11KeyStore), certAlias);
-        PrivateKey key = (PrivateKey)PkiUtil.getKeyFromKeyStore(pkcs11KeyStore, keyAlias);
-        return RsaKeyContext.of(certificate.getPublicKey(), key, (X509Certificate)certificate);
+        return engine.getKeyContext();
     }
 
+    /**
+     * Logs into the token on the key loader executor and fills the alias combo boxes when done.
+     * Pressing Load again while a load is still running cancels the earlier one.
+     */
     public void loadPkcs11() {
         try {
             String pkcs11Lib = checkNotNull(pkcs11LibTextField).textProperty().get();
             String pkcs11TokenPin = checkNotNull(pkcs11TokenPinTextField).textProperty().get();
 
             if (StringUtils.isBlank(pkcs11Lib)) {
-                Alert alert = new Alert(Alert.AlertType.ERROR, "PKCS#11 Library Path is empty", ButtonType.OK);
-                alert.showAndWait();
+                notificationListener.error(tabName(), "PKCS#11 Library Path is empty", null);
                 return;
             }
 
-            pkcs11KeyStore = PkiUtil.loadPKCS11KeyStore(pkcs11Lib, pkcs11TokenPin);
+            CompletableFuture<Pkcs11TokenIndex> previousLoad = pendingLoad;
+            if (previousLoad != null) {
+                previousLoad.cancel(true);
+            }
+            CompletableFuture<Pkcs11TokenIndex> load = engine.loadAsync(pkcs11Lib, pkcs11TokenPin,
+                    (stage, done, total) -> LOGGER.info("PKCS#11 load {}/{}: {}", done, total, stage));
+            pendingLoad = load;
+            load.whenComplete((index, e) -> Platform.runLater(() -> {
+                if (pendingLoad == load) {
+                    pendingLoad = null;
+                }
+                if (load.isCancelled()) {
+                    return;
+                }
+                if (e != null) {
+                    LOGGER.error("Error loading PKCS#11", e);
+                    notificationListener.error(tabName(), e);
+                } else {
+                    showLoadedAliases();
+                }
+            }));
+        } catch (Exception e) {
+            LOGGER.error("Error loading PKCS#11", e);
+            notificationListener.error(tabName(), e);
+        }
+    }
 
-            List<String> keyAliases = PkiUtil.getKeyAliasesFromKeyStore(pkcs11KeyStore);
-            List<String> certificateAliases = PkiUtil.getCertificateAliasesFromKeyStore(pkcs11KeyStore);
+    protected void showLoadedAliases() {
+        List<String> keyAliases = engine.getKeyAliases();
+        List<String> certificateAliases = engine.getCertificateAliases();
 
-            String certificateBefore = checkNotNull(certificatesComboBox).valueProperty().get();
-            String keyBefore = checkNotNull(privateKeysComboBox).valueProperty().get();
+        String certificateBefore = checkNotNull(certificatesComboBox).valueProperty().get();
+        String keyBefore = checkNotNull(privateKeysComboBox).valueProperty().get();
 
-            checkNotNull(certificatesComboBox).getItems().clear();
-            checkNotNull(certificatesComboBox).getItems().addAll(certificateAliases);
-            if (!certificateAliases.isEmpty()) {
-                if (!certificateAliases.contains(certificateBefore)) {
-                    certificateBefore = certificateAliases.get(0);
-                }
-                checkNotNull(certificatesComboBox).valueProperty().set(certificateBefore);
+        checkNotNull(certificatesComboBox).getItems().clear();
+        checkNotNull(certificatesComboBox).getItems().addAll(certificateAliases);
+        if (!certificateAliases.isEmpty()) {
+            if (!certificateAliases.contains(certificateBefore)) {
+                certificateBefore = certificateAliases.get(0);
             }
+            checkNotNull(certificatesComboBox).valueProperty().set(certificateBefore);
+        }
 
-            checkNotNull(privateKeysComboBox).getItems().clear();
-            checkNotNull(privateKeysComboBox).getItems().addAll(keyAliases);
-            if (!keyAliases.isEmpty()) {
-                if (!keyAliases.contains(keyBefore)) {
-                    keyBefore = keyAliases.get(0);
-                }
-                checkNotNull(privateKeysComboBox).valueProperty().set(keyBefore);
+        checkNotNull(privateKeysComboBox).getItems().clear();
+        checkNotNull(privateKeysComboBox).getItems().addAll(keyAliases);
+        if (!keyAliases.isEmpty()) {
+            if (!keyAliases.contains(keyBefore)) {
+                keyBefore = keyAliases.get(0);
             }
-
-            Alert alert = new Alert(Alert.AlertType.INFORMATION, "PKCS#11 successfully loaded", ButtonType.OK);
-            alert.showAndWait();
-        } catch (Exception e) {
-            LOGGER.error("Error loading PKCS#11", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            checkNotNull(privateKeysComboBox).valueProperty().set(keyBefore);
         }
+
+        notificationListener.info(tabName(), "PKCS#11 successfully loaded");
     }
 
     @Override
@@ -227,11 +217,9 @@ public class RsaPkcs11KeyProvider extends AnchorPane implements TabKeyProvider,
 
     public static void updatePkcs11UserPreferences(String pkcs11LibraryPath, String pkcs11CertificateAlias,
                                                    String pkcs11PrivateKeyAlias) {
-        Preferences userPreferences = Preferences.userRoot();
-
-        updateUserPreference(userPreferences, PKCS11_LIBRARY_PATH, pkcs11LibraryPath);
-        updateUserPreference(userPreferences, PKCS11_CERTIFICATE_ALIAS, pkcs11CertificateAlias);
-        updateUserPreference(userPreferences, PKCS11_PRIVATE_KEY_ALIAS, pkcs11PrivateKeyAlias);
+        updateUserPreference(PKCS11_LIBRARY_PATH, pkcs11LibraryPath);
+        updateUserPreference(PKCS11_CERTIFICATE_ALIAS, pkcs11CertificateAlias);
+        updateUserPreference(PKCS11_PRIVATE_KEY_ALIAS, pkcs11PrivateKeyAlias);
     }
 
     public static String pkcs11LibraryPath() { return getUserPreference(PKCS11_LIBRARY_PATH); }
@@ -239,48 +227,44 @@ public class RsaPkcs11KeyProvider extends AnchorPane implements TabKeyProvider,
     public static String pkcs11PrivateKeyAlias() { return getUserPreference(PKCS11_PRIVATE_KEY_ALIAS); }
 
     /** Show Text dialog */
-    protected void showTextDialog(String title, String text) {
+    protected void showTextDialog(String title, String summary, Supplier<Stream<String>> lines) {
         try {
-            ShowTextDialog dialog = new ShowTextDialog(text);
+            ShowTextDialog dialog = new ShowTextDialog(summary, lines);
             Stage workspaceStage = ModalWindow.showModal(checkNotNull(mainStage),
                     stage -> { dialog.setStage(stage); return dialog; },
                     title);
         } catch (Exception e) {
-            Alert alert = new Alert(Alert.AlertType.ERROR, "Error showing text dialog: " + e, ButtonType.OK);
             LOGGER.error("Error showing text dialog: ", e);
-            alert.showAndWait();
+            notificationListener.error(tabName(), "Error showing text dialog: " + e, e);
         }
     }
 
     public void showCertificate() {
         try {
-            if (pkcs11KeyStore == null) {
-                throw new RuntimeException("PKCS#11 store not loaded");
-            }
             String certAlias = checkNotNull(certificatesComboBox).getValue();
-            Certificate certificate = PkiUtil.getCertificateFromKeyStore(checkNotNull(pkcs11KeyStore), certAlias);
-            String certificateStr = PkiUtil.getCertificateAsPem(certificate);
-            showTextDialog("Certificate: " + certAlias, certificateStr);
+            List<Certificate> chain = List.of(engine.getCertificate(certAlias));
+            showTextDialog("Certificate: " + certAlias, CertificateText.summary(chain),
+                    () -> CertificateText.lines(chain));
         } catch (Exception e) {
-            Alert alert = new Alert(Alert.AlertType.ERROR, "Error showing certificate: " + e, ButtonType.OK);
             LOGGER.error("Error showing certificate: ", e);
-            alert.showAndWait();
+            notificationListener.error(tabName(), "Error showing certificate: " + e, e);
         }
     }
 
     public void showKey() {
         try {
-            if (pkcs11KeyStore == null) {
-                throw new RuntimeException("PKCS#11 store not loaded");
-            }
             String keyAlias = checkNotNull(privateKeysComboBox).getValue();
-            PrivateKey key = (PrivateKey)PkiUtil.getKeyFromKeyStore(pkcs11KeyStore, keyAlias);
-            String keyStr = PkiUtil.getKeyAsPem(key);
-            showTextDialog("Key: " + keyAlias, keyStr);
+            PrivateKey key = engine.getPrivateKey(keyAlias);
+            showTextDialog("Key: " + keyAlias, key.getAlgorithm() + " private key", () -> {
+                try {
+                    return PkiUtil.getKeyAsPem(key).lines();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
         } catch (Exception e) {
-            Alert alert = new Alert(Alert.AlertType.ERROR, "Error showing key: " + e, ButtonType.OK);
             LOGGER.error("Error showing key: ", e);
-            alert.showAndWait();
+            notificationListener.error(tabName(), "Error showing key: " + e, e);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,19 @@
 package com.flower.crypt.keys.forms;
 
 import com.flower.crypt.keys.KeyContext;
+import com.flower.crypt.keys.engine.CertificateChains;
+import com.flower.crypt.keys.engine.KeyValidation;
+import com.flower.crypt.keys.engine.RsaRawKeyEngine;
+import com.flower.crypt.keys.engine.RsaRawKeySpec;
+import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
-import com.flower.crypt.keys.RsaKeyContext;
 import com.flower.crypt.PkiUtil;
-import com.flower.crypt.keys.RsaKeyProvider;
+import com.flower.crypt.keys.ReloadableRsaKeyProvider;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.control.Alert;
-import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
 import javafx.scene.control.TextArea;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.paint.Color;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,56 +22,62 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.net.ssl.KeyManagerFactory;
-import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.SignatureException;
 import java.security.cert.Certificate;
-import java.security.cert.X509Certificate;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.prefs.Preferences;
 
 import static com.flower.crypt.keys.UserPreferencesManager.getUserPreference;
 import static com.flower.crypt.keys.UserPreferencesManager.updateUserPreference;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class RsaRawKeyProvider extends AnchorPane implements TabKeyProvider, RsaKeyProvider {
+public class RsaRawKeyProvider extends AnchorPane implements TabKeyProvider, ReloadableRsaKeyProvider {
     final static Logger LOGGER = LoggerFactory.getLogger(RsaRawKeyProvider.class);
     final static String RAW_CERTIFICATE = "flowerCertificateChooserRawCertificate";
     final static String RAW_PRIVATE_KEY = "flowerCertificateChooserRawPrivateKey";
 
     @FXML @Nullable TextArea rawCertificateTextArea;
     @FXML @Nullable TextArea rawPrivateKeyTextArea;
+    @FXML @Nullable Label keyStatusLabel;
 
-    final AtomicReference<RawKeyManager> currentKeyManager = new AtomicReference<>(null);
-    static final class RawKeyManager {
-        final String certificateStr;
-        final String keyStr;
-        final KeyManagerFactory keyManagerFactory;
+    protected final RsaRawKeyEngine engine = new RsaRawKeyEngine();
+    volatile KeyProviderListener notificationListener = KeyProviderListeners.ALERT;
 
-        RawKeyManager(String certificateStr, String keyStr, KeyManagerFactory keyManagerFactory) {
-            this.certificateStr = certificateStr;
-            this.keyStr = keyStr;
-            this.keyManagerFactory = keyManagerFactory;
-        }
+    public RsaRawKeyProvider() {
+        engine.setMetricsTag(tabName());
+        FxmlCache.load(this, "RsaRawKeyProvider.fxml");
+
+        checkNotNull(rawCertificateTextArea).textProperty().addListener(this::keyTextChanged);
+        checkNotNull(rawPrivateKeyTextArea).textProperty().addListener(this::keyTextChanged);
+        // Show the latest state when the FX thread gets to it, even if notifications arrive out of order.
+        engine.addValidationListener(validation -> Platform.runLater(() -> showValidation(engine.getValidation())));
+        updateEngineSpec();
+        showValidation(engine.getValidation());
+    }
 
-        public boolean sameContext(String certificateStr, String keyStr) {
-            return Objects.equals(certificateStr, this.certificateStr)
-                    && Objects.equals(keyStr, this.keyStr);
-        }
+    public RsaRawKeyEngine getEngine() {
+        return engine;
     }
 
-    public RsaRawKeyProvider() {
-        FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("RsaRawKeyProvider.fxml"));
-        fxmlLoader.setRoot(this);
-        fxmlLoader.setController(this);
+    public void keyTextChanged(ObservableValue<? extends String> observable, String _old, String _new) {
+        updateEngineSpec();
+    }
 
-        try {
-            fxmlLoader.load();
-        } catch (IOException exception) {
-            throw new RuntimeException(exception);
+    public void updateEngineSpec() {
+        String certificateStr = checkNotNull(rawCertificateTextArea).textProperty().get();
+        String keyStr = checkNotNull(rawPrivateKeyTextArea).textProperty().get();
+        engine.setSpec(RsaRawKeySpec.of(certificateStr, keyStr));
+    }
+
+    /** Show the engine's latest background check of the entered keys. */
+    public void showValidation(KeyValidation validation) {
+        Label label = checkNotNull(keyStatusLabel);
+        label.setText(validation.message());
+        switch (validation.status()) {
+            case VALID: label.setTextFill(Color.GREEN); break;
+            case INVALID: label.setTextFill(Color.RED); break;
+            default: label.setTextFill(Color.GRAY); break;
         }
     }
 
@@ -76,26 +85,54 @@ public class RsaRawKeyProvider extends AnchorPane implements TabKeyProvider, Rsa
         try {
             String certificateStr = checkNotNull(rawCertificateTextArea).textProperty().get();
             String keyStr = checkNotNull(rawPrivateKeyTextArea).textProperty().get();
-            Certificate certificate = PkiUtil.getCertificateFromString(certificateStr);
+            Certificate certificate = CertificateChains.parseChain(certificateStr).get(0);
             PrivateKey key = PkiUtil.getPrivateKeyFromString(keyStr);
 
-            testKeys(certificate, key);
+            testKeys(certificate, key, tabName(), notificationListener);
         } catch (Exception e) {
             LOGGER.error("Raw keys test error", e);
-            Alert alert = new Alert(Alert.AlertType.ERROR, e.toString(), ButtonType.OK);
-            alert.showAndWait();
+            notificationListener.error(tabName(), e);
         }
     }
 
+    /** Run the encryption and signature round trips and show the outcome in an alert, as before. */
     public static void testKeys(Certificate certificate, PrivateKey key) throws NoSuchPaddingException,
             IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException, SignatureException {
-        String encryptTestResult = PkiUtil.testKeyPairMatchByEncrypting(certificate.getPublicKey(), key) ? "SUCCESS" : "FAIL";
-        String signTestResult = PkiUtil.testKeyPairMatchBySigning(certificate.getPublicKey(), key) ? "SUCCESS" : "FAIL";
+        testKeys(certificate, key, "Key test", KeyProviderListeners.ALERT);
+    }
+
+    /**
+     * Run the encryption and signature round trips and report the outcome to {@code listener},
+     * as an error if either of them failed.
+     */
+    public static void testKeys(Certificate certificate, PrivateKey key, String source, KeyProviderListener listener)
+            throws NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException,
+            InvalidKeyException, SignatureException {
+        boolean encryptTest = PkiUtil.testKeyPairMatchByEncrypting(certificate.getPublicKey(), key);
+        boolean signTest = PkiUtil.testKeyPairMatchBySigning(certificate.getPublicKey(), key);
+        String message = describeKeyTest(encryptTest, signTest);
+        if (encryptTest && signTest) {
+            listener.info(source, message);
+        } else {
+            listener.error(source, message, null);
+        }
+    }
+
+    /** Run the encryption and signature round trips and describe the outcome. */
+    public static String describeKeyTest(Certificate certificate, PrivateKey key) throws NoSuchPaddingException,
+            IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException, SignatureException {
+        return describeKeyTest(PkiUtil.testKeyPairMatchByEncrypting(certificate.getPublicKey(), key),
+                PkiUtil.testKeyPairMatchBySigning(certificate.getPublicKey(), key));
+    }
+
+    static String describeKeyTest(boolean encryptTest, boolean signTest) {
+        return String.format("Encryption test: %s.\nSignature test: %s",
+                encryptTest ? "SUCCESS" : "FAIL", signTest ? "SUCCESS" : "FAIL");
+    }
 
-        Alert alert = new Alert(Alert.AlertType.INFORMATION,
-                String.format("Encryption test: %s.\nSignature test: %s", encryptTestResult, signTestResult),
-                ButtonType.OK);
-        alert.showAndWait();
+    @Override
+    public void setNotificationListener(KeyProviderListener listener) {
+        this.notificationListener = checkNotNull(listener);
     }
 
     @Override
@@ -110,41 +147,17 @@ public class RsaRawKeyProvider extends AnchorPane implements TabKeyProvider, Rsa
 
     @Override
     public KeyManagerFactory getKeyManagerFactory() {
-        try {
-            String certificateStr = checkNotNull(rawCertificateTextArea).textProperty().get();
-            String keyStr = checkNotNull(rawPrivateKeyTextArea).textProperty().get();
+        return engine.getKeyManagerFactory();
+    }
 
-            while (true) {
-                RawKeyManager keyManager = currentKeyManager.get();
-                if (keyManager != null && keyManager.sameContext(certificateStr, keyStr)) {
-                    return keyManager.keyManagerFactory;
-                } else {
-                    X509Certificate certificate = PkiUtil.getCertificateFromString(certificateStr);
-                    PrivateKey key = PkiUtil.getPrivateKeyFromString(keyStr);
-                    KeyManagerFactory keyManagerFactory = PkiUtil.getKeyManagerFromCertAndPrivateKey(certificate, key);
-                    RawKeyManager newKeyManager = new RawKeyManager(certificateStr, keyStr, keyManagerFactory);
-                    if (currentKeyManager.compareAndSet(keyManager, newKeyManager)) {
-                        return keyManagerFactory;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    @Override
+    public KeyManagerFactory getReloadableKeyManagerFactory() {
+        return engine.getReloadableKeyManagerFactory();
     }
 
     @Override
     public KeyContext getKeyContext() {
-        try {
-            String certificateStr = checkNotNull(rawCertificateTextArea).textProperty().get();
-            String keyStr = checkNotNull(rawPrivateKeyTextArea).textProperty().get();
-            X509Certificate certificate = PkiUtil.getCertificateFromString(certificateStr);
-            PrivateKey key = PkiUtil.getPrivateKeyFromString(keyStr);
-
-            return RsaKeyContext.of(certificate.getPublicKey(), key, certificate);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return engine.getKeyContext();
     }
 
     @Override
@@ -175,10 +188,8 @@ public class RsaRawKeyProvider extends AnchorPane implements TabKeyProvider, Rsa
     }
 
     public static void updateUserPreferences(String rawCertificate, String rawPrivateKey) {
-        Preferences userPreferences = Preferences.userRoot();
-
-        updateUserPreference(userPreferences, RAW_CERTIFICATE, rawCertificate);
-        updateUserPreference(userPreferences, RAW_PRIVATE_KEY, rawPrivateKey);
+        updateUserPreference(RAW_CERTIFICATE, rawCertificate);
+        updateUserPreference(RAW_PRIVATE_KEY, rawPrivateKey);
     }
 
     public static String rawCertificate() { return getUserPreference(RAW_CERTIFICATE); }
@@ -1,47 +1,149 @@
 package com.flower.crypt.keys.forms;
 
+import com.flower.crypt.keys.KeyLoaders;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TextField;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Read-only text viewer for PEM, certificate chains and bundles of any size. Lines are shown in a virtualized
+ * {@link ListView}, so only the visible ones are laid out, and are produced on a background thread and added in
+ * batches, so the dialog opens at once with the summary while a long bundle is still being rendered.
+ */
 public class ShowTextDialog extends VBox {
     final static Logger LOGGER = LoggerFactory.getLogger(ShowTextDialog.class);
 
-    @FXML @Nullable TextArea showTextArea;
+    static final int BATCH_SIZE = 500;
+
+    @FXML @Nullable Label summaryLabel;
+    @FXML @Nullable TextField searchTextField;
+    @FXML @Nullable Label statusLabel;
+    @FXML @Nullable ListView<String> linesListView;
 
     @Nullable Stage stage;
+    final Future<?> loading;
+    volatile boolean closed;
 
     public ShowTextDialog(String text) {
-        FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("ShowTextDialog.fxml"));
-        fxmlLoader.setRoot(this);
-        fxmlLoader.setController(this);
+        this("", text::lines);
+    }
 
-        try {
-            fxmlLoader.load();
-        } catch (IOException exception) {
-            throw new RuntimeException(exception);
+    /**
+     * @param summary shown above the text straight away
+     * @param lines opened and consumed on a background thread; closed when done or when the dialog closes
+     */
+    public ShowTextDialog(String summary, Supplier<Stream<String>> lines) {
+        FxmlCache.load(this, "ShowTextDialog.fxml");
+
+        checkNotNull(summaryLabel).setText(summary);
+        checkNotNull(summaryLabel).setManaged(!summary.isEmpty());
+        checkNotNull(linesListView).getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        checkNotNull(statusLabel).setText("Loading...");
+        loading = KeyLoaders.submit(() -> {
+            load(lines);
+            return null;
+        });
+    }
+
+    void load(Supplier<Stream<String>> lines) {
+        long count = 0;
+        try (Stream<String> stream = lines.get()) {
+            Iterator<String> iterator = stream.iterator();
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            while (iterator.hasNext() && !closed) {
+                batch.add(iterator.next());
+                count++;
+                if (batch.size() == BATCH_SIZE) {
+                    publish(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            publish(batch);
+            long total = count;
+            Platform.runLater(() -> checkNotNull(statusLabel).setText(total + " lines"));
+        } catch (Exception e) {
+            LOGGER.error("Error rendering text", e);
+            String message = "Error after " + count + " lines: " + e;
+            Platform.runLater(() -> checkNotNull(statusLabel).setText(message));
         }
+    }
 
-        checkNotNull(showTextArea).textProperty().set(text);
+    void publish(List<String> batch) {
+        if (!batch.isEmpty()) {
+            Platform.runLater(() -> checkNotNull(linesListView).getItems().addAll(batch));
+        }
     }
 
     public void setStage(Stage stage) {
         this.stage = stage;
+        stage.setOnHidden(event -> stopLoading());
+    }
+
+    void stopLoading() {
+        closed = true;
+        loading.cancel(true);
+    }
+
+    /** Select the next line, after the current selection, containing the search text (ignoring case). */
+    public void findNext() {
+        String query = checkNotNull(searchTextField).getText();
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        String needle = query.toLowerCase(Locale.ROOT);
+        ListView<String> listView = checkNotNull(linesListView);
+        ObservableList<String> lines = listView.getItems();
+        int start = listView.getSelectionModel().getSelectedIndex() + 1;
+        for (int i = 0; i < lines.size(); i++) {
+            int index = (start + i) % lines.size();
+            if (lines.get(index).toLowerCase(Locale.ROOT).contains(needle)) {
+                listView.getSelectionModel().clearAndSelect(index);
+                listView.scrollTo(Math.max(0, index - 3));
+                checkNotNull(statusLabel).setText("Line " + (index + 1));
+                return;
+            }
+        }
+        checkNotNull(statusLabel).setText("Not found");
+    }
+
+    /** Copy the selected lines, or all lines if none are selected. */
+    public void copyToClipboard() {
+        ListView<String> listView = checkNotNull(linesListView);
+        List<String> lines = listView.getSelectionModel().getSelectedItems();
+        if (lines.isEmpty()) {
+            lines = listView.getItems();
+        }
+        ClipboardContent content = new ClipboardContent();
+        content.putString(String.join("\n", lines));
+        Clipboard.getSystemClipboard().setContent(content);
     }
 
     public void okClose() {
         try {
+            stopLoading();
             checkNotNull(stage).close();
         } catch (Exception e) {
             Alert alert = new Alert(Alert.AlertType.ERROR, "ShowTextDialog close Error: " + e, ButtonType.OK);
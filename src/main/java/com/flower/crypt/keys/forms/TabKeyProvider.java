@@ -7,4 +7,8 @@ public interface TabKeyProvider extends KeyProvider {
     String tabName();
     AnchorPane tabContent();
     void initPreferences();
+
+    /** Send this provider's success and error messages to {@code listener}; providers with none ignore it. */
+    default void setNotificationListener(KeyProviderListener listener) {
+    }
 }
@@ -0,0 +1,46 @@
+package com.flower.crypt.keys.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a {@link LatencyHistogram} per timer and a counter per event for every provider, in memory.
+ * Read them through {@link #provider(String)} or {@link #providers()}, or expose them with {@link JmxKeyMetrics}.
+ */
+public class InMemoryKeyMetrics implements KeyMetrics {
+    final Map<String, ProviderMetrics> providers = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String provider, Timer timer, long nanos) {
+        provider(provider).timer(timer).record(nanos);
+    }
+
+    @Override
+    public void increment(String provider, Counter counter) {
+        provider(provider).increment(counter);
+    }
+
+    /** Metrics of {@code provider}, created on first use. */
+    public ProviderMetrics provider(String provider) {
+        ProviderMetrics metrics = providers.get(provider);
+        if (metrics != null) {
+            return metrics;
+        }
+        ProviderMetrics created = new ProviderMetrics(provider);
+        metrics = providers.putIfAbsent(provider, created);
+        if (metrics != null) {
+            return metrics;
+        }
+        onNewProvider(created);
+        return created;
+    }
+
+    public Map<String, ProviderMetrics> providers() {
+        return Collections.unmodifiableMap(providers);
+    }
+
+    /** Called once for each provider, the first time it reports anything. */
+    protected void onNewProvider(ProviderMetrics metrics) {
+    }
+}
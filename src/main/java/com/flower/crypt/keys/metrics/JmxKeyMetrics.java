@@ -0,0 +1,163 @@
+package com.flower.crypt.keys.metrics;
+
+import com.google.common.base.CaseFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * {@link InMemoryKeyMetrics} that also registers one MBean per provider, named
+ * {@code com.flower.crypt.keys:type=KeyProviderMetrics,provider=<tabName>}. Each timer is exposed as
+ * {@code <Timer>Count}, {@code <Timer>MeanMicros}, {@code <Timer>P50Micros}, {@code <Timer>P99Micros} and
+ * {@code <Timer>MaxMicros}, each counter as {@code <Counter>}, e.g. {@code KeyManagerFactoryP99Micros} and
+ * {@code CacheMiss}. Attributes are computed when read, so JMX adds nothing to the recording path.
+ * <pre>
+ * Metrics.install(JmxKeyMetrics.register());
+ * </pre>
+ */
+public class JmxKeyMetrics extends InMemoryKeyMetrics implements AutoCloseable {
+    final static Logger LOGGER = LoggerFactory.getLogger(JmxKeyMetrics.class);
+
+    public static final String DOMAIN = "com.flower.crypt.keys";
+
+    final MBeanServer server;
+    final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+    public JmxKeyMetrics(MBeanServer server) {
+        this.server = server;
+    }
+
+    /** Metrics exposed through the platform MBean server. */
+    public static JmxKeyMetrics register() {
+        return new JmxKeyMetrics(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    @Override
+    protected void onNewProvider(ProviderMetrics metrics) {
+        try {
+            ObjectName name = objectName(metrics.provider());
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new ProviderMetricsMBean(metrics), name);
+            registered.add(name);
+        } catch (JMException e) {
+            LOGGER.warn("Failed to register metrics MBean for provider {}", metrics.provider(), e);
+        }
+    }
+
+    public static ObjectName objectName(String provider) throws JMException {
+        return new ObjectName(DOMAIN + ":type=KeyProviderMetrics,provider=" + ObjectName.quote(provider));
+    }
+
+    /** Unregister the MBeans; install another {@link KeyMetrics} first, or providers will register them again. */
+    @Override
+    public void close() {
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.debug("Metrics MBean {} already unregistered", name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /** Read-only view of one provider's metrics. */
+    static final class ProviderMetricsMBean implements DynamicMBean {
+        final Map<String, Function<ProviderMetrics, Long>> attributes = new LinkedHashMap<>();
+        final ProviderMetrics metrics;
+        final MBeanInfo info;
+
+        ProviderMetricsMBean(ProviderMetrics metrics) {
+            this.metrics = metrics;
+            for (KeyMetrics.Timer timer : KeyMetrics.Timer.values()) {
+                String prefix = CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, timer.name());
+                attributes.put(prefix + "Count", m -> m.timer(timer).count());
+                attributes.put(prefix + "MeanMicros", m -> m.timer(timer).meanNanos() / 1000);
+                attributes.put(prefix + "P50Micros", m -> m.timer(timer).percentileNanos(0.5) / 1000);
+                attributes.put(prefix + "P99Micros", m -> m.timer(timer).percentileNanos(0.99) / 1000);
+                attributes.put(prefix + "MaxMicros", m -> m.timer(timer).maxNanos() / 1000);
+            }
+            for (KeyMetrics.Counter counter : KeyMetrics.Counter.values()) {
+                attributes.put(CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, counter.name()),
+                        m -> m.count(counter));
+            }
+
+            List<MBeanAttributeInfo> attributeInfos = new ArrayList<>();
+            for (String attribute : attributes.keySet()) {
+                attributeInfos.add(new MBeanAttributeInfo(attribute, "long", attribute, true, false, false));
+            }
+            info = new MBeanInfo(ProviderMetricsMBean.class.getName(),
+                    "Key provider metrics for " + metrics.provider(),
+                    attributeInfos.toArray(new MBeanAttributeInfo[0]), null,
+                    new MBeanOperationInfo[] {new MBeanOperationInfo("reset", "Reset all timers and counters",
+                            new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION)},
+                    null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Function<ProviderMetrics, Long> getter = attributes.get(attribute);
+            if (getter == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return getter.apply(metrics);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                Function<ProviderMetrics, Long> getter = attributes.get(name);
+                if (getter != null) {
+                    list.add(new Attribute(name, getter.apply(metrics)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if ("reset".equals(actionName)) {
+                metrics.reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.flower.crypt.keys.metrics;
+
+/**
+ * Receives measurements from the key providers, tagged by provider (its {@code tabName()}).
+ * Implementations are called on hot paths such as TLS handshakes, so they must be thread-safe, non-blocking and
+ * cheap. Install one with {@link Metrics#install}; until then {@link #NOOP} is used and timing is skipped entirely.
+ */
+public interface KeyMetrics {
+    enum Timer {
+        /** {@code getKeyManagerFactory()}, including any parse and cache build it has to wait for. */
+        KEY_MANAGER_FACTORY,
+        /** {@code getKeyContext()}. */
+        KEY_CONTEXT,
+        /** PKCS#11 signature, from taking a session until the signature is done. */
+        PKCS11_SIGN,
+        /** PKCS#11 decryption, from taking a session until the plaintext is done. */
+        PKCS11_DECRYPT,
+        /** Time a PKCS#11 operation spent queued for a free session. */
+        PKCS11_SESSION_WAIT
+    }
+
+    enum Counter {
+        /** Key manager factory served from {@code KeyManagerFactoryCache}. */
+        CACHE_HIT,
+        /** Key manager factory built because the cache didn't have it. */
+        CACHE_MISS,
+        /** Key material parsed or loaded again, e.g. after an edit, a file rotation or a token reload. */
+        REBUILD,
+        /** PKCS#11 operation submitted while every session was busy. */
+        PKCS11_SESSION_BUSY,
+        FILE_RELOAD,
+        FILE_RELOAD_FAILURE,
+        PREFERENCES_FLUSH,
+        PREFERENCES_FLUSH_FAILURE
+    }
+
+    KeyMetrics NOOP = new KeyMetrics() {
+        @Override
+        public void record(String provider, Timer timer, long nanos) {
+        }
+
+        @Override
+        public void increment(String provider, Counter counter) {
+        }
+    };
+
+    void record(String provider, Timer timer, long nanos);
+
+    void increment(String provider, Counter counter);
+}
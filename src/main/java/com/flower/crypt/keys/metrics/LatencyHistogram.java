@@ -0,0 +1,89 @@
+package com.flower.crypt.keys.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets: bucket {@code i} counts values in {@code [2^i, 2^(i+1))}
+ * nanoseconds. Recording is a couple of {@link LongAdder} increments, so it stays cheap under contention;
+ * percentiles are accurate to within a factor of two, which is enough to tell a warm cache from a cold parse.
+ */
+public final class LatencyHistogram {
+    static final int BUCKETS = 64;
+
+    final LongAdder[] buckets = new LongAdder[BUCKETS];
+    final LongAdder totalNanos = new LongAdder();
+    final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        buckets[bucket(value)].increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    static int bucket(long nanos) {
+        return nanos == 0L ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    public long meanNanos() {
+        long count = count();
+        return count == 0 ? 0L : totalNanos() / count;
+    }
+
+    /**
+     * Upper bound of the bucket holding the {@code quantile} (0..1) of recorded values, capped at the maximum
+     * seen; 0 if nothing was recorded.
+     */
+    public long percentileNanos(double quantile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(Math.min(1.0, Math.max(0.0, quantile)) * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                return Math.min(upperBound, maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+}
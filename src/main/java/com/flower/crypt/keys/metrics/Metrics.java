@@ -0,0 +1,55 @@
+package com.flower.crypt.keys.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds the installed {@link KeyMetrics} and the helpers instrumented code calls. Typical use:
+ * <pre>
+ * long start = Metrics.start();
+ * try {
+ *     ...
+ * } finally {
+ *     Metrics.stop(metricsTag, KeyMetrics.Timer.KEY_CONTEXT, start);
+ * }
+ * </pre>
+ * With nothing installed {@link #start()} doesn't read the clock and {@link #stop} returns straight away.
+ */
+public final class Metrics {
+    /** Tag for measurements not made on behalf of a particular provider. */
+    public static final String UNTAGGED = "";
+    public static final String PREFERENCES = "Preferences";
+
+    static volatile KeyMetrics current = KeyMetrics.NOOP;
+
+    private Metrics() {
+    }
+
+    /** Send all measurements to {@code metrics} from now on; {@link KeyMetrics#NOOP} turns measuring off. */
+    public static void install(KeyMetrics metrics) {
+        current = checkNotNull(metrics);
+    }
+
+    public static KeyMetrics current() {
+        return current;
+    }
+
+    public static boolean isEnabled() {
+        return current != KeyMetrics.NOOP;
+    }
+
+    /** Start of a timed operation, or 0 when measuring is off. */
+    public static long start() {
+        return current == KeyMetrics.NOOP ? 0L : System.nanoTime();
+    }
+
+    /** Record the time since {@code start}, a value returned by {@link #start()}. */
+    public static void stop(String provider, KeyMetrics.Timer timer, long start) {
+        if (start != 0L) {
+            current.record(provider, timer, System.nanoTime() - start);
+        }
+    }
+
+    public static void increment(String provider, KeyMetrics.Counter counter) {
+        current.increment(provider, counter);
+    }
+}
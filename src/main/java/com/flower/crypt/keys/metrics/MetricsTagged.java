@@ -0,0 +1,21 @@
+package com.flower.crypt.keys.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/** Something whose measurements are tagged with a provider name, see {@link Metrics}. */
+public abstract class MetricsTagged {
+    private volatile String metricsTag;
+
+    protected MetricsTagged(String metricsTag) {
+        this.metricsTag = checkNotNull(metricsTag);
+    }
+
+    /** Forms set this to their tab name, so measurements show up under it. */
+    public void setMetricsTag(String metricsTag) {
+        this.metricsTag = checkNotNull(metricsTag);
+    }
+
+    public String getMetricsTag() {
+        return metricsTag;
+    }
+}
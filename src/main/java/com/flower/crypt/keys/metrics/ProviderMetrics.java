@@ -0,0 +1,44 @@
+package com.flower.crypt.keys.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Histograms and counters of one provider, as kept by {@link InMemoryKeyMetrics}. */
+public final class ProviderMetrics {
+    final String provider;
+    final Map<KeyMetrics.Timer, LatencyHistogram> timers = new EnumMap<>(KeyMetrics.Timer.class);
+    final Map<KeyMetrics.Counter, LongAdder> counters = new EnumMap<>(KeyMetrics.Counter.class);
+
+    ProviderMetrics(String provider) {
+        this.provider = provider;
+        // Filled up front and never modified afterwards, so concurrent reads of the maps are safe.
+        for (KeyMetrics.Timer timer : KeyMetrics.Timer.values()) {
+            timers.put(timer, new LatencyHistogram());
+        }
+        for (KeyMetrics.Counter counter : KeyMetrics.Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    public String provider() {
+        return provider;
+    }
+
+    public LatencyHistogram timer(KeyMetrics.Timer timer) {
+        return timers.get(timer);
+    }
+
+    public long count(KeyMetrics.Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    void increment(KeyMetrics.Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    public void reset() {
+        timers.values().forEach(LatencyHistogram::reset);
+        counters.values().forEach(LongAdder::reset);
+    }
+}
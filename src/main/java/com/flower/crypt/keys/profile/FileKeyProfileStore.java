@@ -0,0 +1,158 @@
+package com.flower.crypt.keys.profile;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * {@link KeyProfileStore} kept in memory and persisted to a single file, in YAML or binary form.
+ * The file is read once when the store is opened. {@link #flush()} writes a complete new file next to it and
+ * renames it into place, so a crash mid-write leaves the previous version intact rather than a torn file.
+ */
+public class FileKeyProfileStore implements KeyProfileStore {
+    final Path file;
+    final KeyProfileFormat format;
+    final Object flushLock = new Object();
+
+    KeyProfiles keyProfiles;
+    boolean dirty;
+
+    FileKeyProfileStore(Path file, KeyProfileFormat format, KeyProfiles keyProfiles) {
+        this.file = file;
+        this.format = format;
+        this.keyProfiles = keyProfiles;
+    }
+
+    /** Open {@code file}, choosing the format by extension; see {@link KeyProfileFormat#forFile}. */
+    public static FileKeyProfileStore open(Path file) throws IOException {
+        return open(file, KeyProfileFormat.forFile(file));
+    }
+
+    /** Open {@code file}, or start an empty store with just the default profile if it doesn't exist yet. */
+    public static FileKeyProfileStore open(Path file, KeyProfileFormat format) throws IOException {
+        Path absoluteFile = file.toAbsolutePath();
+        KeyProfiles keyProfiles = Files.exists(absoluteFile)
+                ? format.read(Files.readAllBytes(absoluteFile))
+                : KeyProfiles.empty();
+        return new FileKeyProfileStore(absoluteFile, checkNotNull(format), keyProfiles);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    public KeyProfileFormat format() {
+        return format;
+    }
+
+    @Override
+    @Nullable public synchronized String get(String key) {
+        return keyProfiles.active().get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, String value) {
+        String oldValue = keyProfiles.active().put(checkNotNull(key), checkNotNull(value));
+        if (!value.equals(oldValue)) {
+            dirty = true;
+        }
+    }
+
+    @Override
+    public synchronized String activeProfile() {
+        return keyProfiles.activeProfile();
+    }
+
+    @Override
+    public synchronized void setActiveProfile(String profile) {
+        checkArgument(!profile.isEmpty(), "Profile name is empty");
+        if (!profile.equals(keyProfiles.activeProfile)) {
+            keyProfiles.profiles.computeIfAbsent(profile, name -> new LinkedHashMap<>());
+            keyProfiles.activeProfile = profile;
+            dirty = true;
+        }
+    }
+
+    @Override
+    public synchronized void copyProfile(String sourceProfile, String profile) {
+        checkArgument(keyProfiles.profiles.containsKey(sourceProfile), "No profile %s", sourceProfile);
+        checkArgument(!profile.isEmpty(), "Profile name is empty");
+        keyProfiles.profiles.put(profile, new LinkedHashMap<>(checkNotNull(keyProfiles.profiles.get(sourceProfile))));
+        dirty = true;
+    }
+
+    @Override
+    public synchronized void deleteProfile(String profile) {
+        checkArgument(!DEFAULT_PROFILE.equals(profile), "The default profile can't be deleted");
+        if (keyProfiles.profiles.remove(profile) != null) {
+            if (profile.equals(keyProfiles.activeProfile)) {
+                keyProfiles.activeProfile = DEFAULT_PROFILE;
+            }
+            dirty = true;
+        }
+    }
+
+    @Override
+    public synchronized Set<String> profiles() {
+        return new LinkedHashSet<>(keyProfiles.profiles.keySet());
+    }
+
+    /**
+     * Encode a snapshot taken under the store's lock and write it outside of it, so callers of {@link #get}/{@link #put}
+     * never wait on disk I/O. Flushes run one at a time, each writing a snapshot at least as new as the previous one.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            KeyProfiles snapshot;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                snapshot = keyProfiles.copy();
+                dirty = false;
+            }
+            try {
+                writeAtomically(file, format.write(snapshot));
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    dirty = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    static void writeAtomically(Path file, byte[] bytes) throws IOException {
+        Path directory = checkNotNull(file.getParent());
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "." + file.getFileName(), ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.flower.crypt.keys.profile;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk encodings of {@link KeyProfiles}. YAML is meant to be read and edited by people; BINARY is a
+ * length-prefixed encoding that loads with a single read and no parsing library, for the fastest startup.
+ */
+public enum KeyProfileFormat {
+    /**
+     * <pre>
+     * version: 1
+     * activeProfile: default
+     * profiles:
+     *   default:
+     *     someKey: someValue
+     * </pre>
+     */
+    YAML {
+        @Override
+        KeyProfiles read(byte[] bytes) throws IOException {
+            JsonNode root = YAML_MAPPER.readTree(bytes);
+            if (root == null || !root.isObject()) {
+                throw new IOException("Profile file is not a YAML mapping");
+            }
+            int version = checkVersion(root.path("version").asInt(-1));
+            String activeProfile = root.path("activeProfile").asText(KeyProfileStore.DEFAULT_PROFILE);
+
+            Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonNode> profileNode : root.path("profiles").properties()) {
+                Map<String, String> values = new LinkedHashMap<>();
+                for (Map.Entry<String, JsonNode> value : profileNode.getValue().properties()) {
+                    values.put(value.getKey(), value.getValue().asText());
+                }
+                profiles.put(profileNode.getKey(), values);
+            }
+            return new KeyProfiles(version, activeProfile, profiles);
+        }
+
+        @Override
+        byte[] write(KeyProfiles keyProfiles) throws IOException {
+            ObjectNode root = YAML_MAPPER.createObjectNode();
+            root.put("version", keyProfiles.version());
+            root.put("activeProfile", keyProfiles.activeProfile());
+            ObjectNode profiles = root.putObject("profiles");
+            keyProfiles.profiles().forEach((name, values) -> {
+                ObjectNode profile = profiles.putObject(name);
+                values.forEach(profile::put);
+            });
+            return YAML_MAPPER.writeValueAsBytes(root);
+        }
+    },
+
+    /** Magic {@code FKPF}, version, active profile, then each profile's name and key/value pairs. */
+    BINARY {
+        @Override
+        KeyProfiles read(byte[] bytes) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != BINARY_MAGIC) {
+                throw new IOException("Not a binary profile file");
+            }
+            int version = checkVersion(in.readUnsignedShort());
+            String activeProfile = readString(in);
+
+            int profileCount = in.readInt();
+            Map<String, Map<String, String>> profiles = new LinkedHashMap<>();
+            for (int i = 0; i < profileCount; i++) {
+                String name = readString(in);
+                int valueCount = in.readInt();
+                Map<String, String> values = new LinkedHashMap<>();
+                for (int j = 0; j < valueCount; j++) {
+                    values.put(readString(in), readString(in));
+                }
+                profiles.put(name, values);
+            }
+            return new KeyProfiles(version, activeProfile, profiles);
+        }
+
+        @Override
+        byte[] write(KeyProfiles keyProfiles) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(BINARY_MAGIC);
+            out.writeShort(keyProfiles.version());
+            writeString(out, keyProfiles.activeProfile());
+            out.writeInt(keyProfiles.profiles().size());
+            for (Map.Entry<String, Map<String, String>> profile : keyProfiles.profiles().entrySet()) {
+                writeString(out, profile.getKey());
+                out.writeInt(profile.getValue().size());
+                for (Map.Entry<String, String> value : profile.getValue().entrySet()) {
+                    writeString(out, value.getKey());
+                    writeString(out, value.getValue());
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+    };
+
+    static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+    static final int BINARY_MAGIC = 0x464B5046;
+
+    abstract KeyProfiles read(byte[] bytes) throws IOException;
+
+    abstract byte[] write(KeyProfiles keyProfiles) throws IOException;
+
+    /** YAML for {@code .yaml}/{@code .yml} files, BINARY otherwise. */
+    public static KeyProfileFormat forFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".yaml") || name.endsWith(".yml") ? YAML : BINARY;
+    }
+
+    static int checkVersion(int version) throws IOException {
+        if (version < 1 || version > KeyProfiles.CURRENT_VERSION) {
+            throw new IOException("Unsupported profile file version " + version);
+        }
+        return version;
+    }
+
+    /** UTF-8 with an int length prefix; unlike {@code writeUTF} there's no 64K limit, which long PEM text can hit. */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Corrupt profile file: bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
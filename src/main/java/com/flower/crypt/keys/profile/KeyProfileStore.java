@@ -0,0 +1,37 @@
+package com.flower.crypt.keys.profile;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Named sets of key chooser settings - file paths, PKCS#11 library and aliases, raw key text - one of which is
+ * active at a time. Reads and writes go to the active profile; {@link #flush()} persists all profiles.
+ * Implementations are thread-safe.
+ */
+public interface KeyProfileStore {
+    String DEFAULT_PROFILE = "default";
+
+    /** Value of {@code key} in the active profile, {@code null} if the profile doesn't have it. */
+    @Nullable String get(String key);
+
+    /** Set {@code key} in the active profile. Persisted by the next {@link #flush()}. */
+    void put(String key, String value);
+
+    String activeProfile();
+
+    /** Make {@code profile} active, creating it empty if it doesn't exist. */
+    void setActiveProfile(String profile);
+
+    /** Create {@code profile} as a copy of {@code sourceProfile}, replacing it if it exists. */
+    void copyProfile(String sourceProfile, String profile);
+
+    /** Remove {@code profile}; the default profile becomes active if it was the active one. */
+    void deleteProfile(String profile);
+
+    /** Profile names, in creation order. */
+    Set<String> profiles();
+
+    /** Write pending changes; does nothing if there are none. */
+    void flush() throws IOException;
+}
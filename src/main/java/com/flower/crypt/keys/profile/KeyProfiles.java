@@ -0,0 +1,53 @@
+package com.flower.crypt.keys.profile;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Contents of a profile store file: format version, active profile name and each profile's settings.
+ * Not thread-safe; {@link FileKeyProfileStore} guards it and hands {@link #copy() copies} to the writers.
+ */
+final class KeyProfiles {
+    static final int CURRENT_VERSION = 1;
+
+    final int version;
+    String activeProfile;
+    final Map<String, Map<String, String>> profiles;
+
+    KeyProfiles(int version, String activeProfile, Map<String, Map<String, String>> profiles) {
+        this.version = version;
+        this.activeProfile = checkNotNull(activeProfile);
+        this.profiles = profiles;
+        this.profiles.computeIfAbsent(KeyProfileStore.DEFAULT_PROFILE, name -> new LinkedHashMap<>());
+        this.profiles.computeIfAbsent(activeProfile, name -> new LinkedHashMap<>());
+    }
+
+    static KeyProfiles empty() {
+        return new KeyProfiles(CURRENT_VERSION, KeyProfileStore.DEFAULT_PROFILE, new LinkedHashMap<>());
+    }
+
+    int version() {
+        return version;
+    }
+
+    String activeProfile() {
+        return activeProfile;
+    }
+
+    Map<String, Map<String, String>> profiles() {
+        return profiles;
+    }
+
+    Map<String, String> active() {
+        return checkNotNull(profiles.get(activeProfile));
+    }
+
+    /** Deep copy, written as the current format version. */
+    KeyProfiles copy() {
+        Map<String, Map<String, String>> profilesCopy = new LinkedHashMap<>();
+        profiles.forEach((name, values) -> profilesCopy.put(name, new LinkedHashMap<>(values)));
+        return new KeyProfiles(CURRENT_VERSION, activeProfile, profilesCopy);
+    }
+}
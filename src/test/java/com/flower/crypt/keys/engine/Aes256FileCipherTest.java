@@ -0,0 +1,187 @@
+package com.flower.crypt.keys.engine;
+
+import com.flower.crypt.keys.Aes256KeyContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class Aes256FileCipherTest {
+    static final int CHUNK_SIZE = 1024;
+    static final int FRAME_LENGTH = CHUNK_SIZE + Aes256FileCipher.TAG_LENGTH;
+    static final int[] SIZES = { 0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 5 * CHUNK_SIZE + 300 };
+    static final Aes256Engine.Mode[] MODES = { Aes256Engine.Mode.GCM, Aes256Engine.Mode.CTR };
+
+    @TempDir Path directory;
+
+    static Aes256FileCipher cipher(Aes256Engine.Mode mode) {
+        byte[] key = new byte[32];
+        new Random(42).nextBytes(key);
+        return new Aes256FileCipher(Aes256Engine.of(Aes256KeyContext.of(key, null), mode), CHUNK_SIZE, 4);
+    }
+
+    static byte[] plaintext(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    static byte[] encryptChannels(Aes256FileCipher cipher, byte[] plaintext) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cipher.encrypt(Channels.newChannel(new ByteArrayInputStream(plaintext)), Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    static byte[] decryptChannels(Aes256FileCipher cipher, byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cipher.decrypt(Channels.newChannel(new ByteArrayInputStream(encrypted)), Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    byte[] encryptFile(Aes256FileCipher cipher, byte[] plaintext) throws Exception {
+        Path source = Files.write(directory.resolve("plain"), plaintext);
+        Path target = directory.resolve("encrypted");
+        cipher.encrypt(source, target);
+        return Files.readAllBytes(target);
+    }
+
+    byte[] decryptFile(Aes256FileCipher cipher, byte[] encrypted) throws Exception {
+        Path source = Files.write(directory.resolve("encrypted"), encrypted);
+        Path target = directory.resolve("decrypted");
+        cipher.decrypt(source, target);
+        return Files.readAllBytes(target);
+    }
+
+    /** Decryption of {@code encrypted} must fail, by both the file and the channel path. */
+    void assertRejected(Aes256FileCipher cipher, byte[] encrypted, String what) throws Exception {
+        try {
+            decryptFile(cipher, encrypted);
+            fail("File decryption accepted " + what);
+        } catch (IOException | GeneralSecurityException e) {
+            // expected
+        }
+        try {
+            decryptChannels(cipher, encrypted);
+            fail("Channel decryption accepted " + what);
+        } catch (IOException | GeneralSecurityException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFileRoundTrip() throws Exception {
+        for (Aes256Engine.Mode mode : MODES) {
+            Aes256FileCipher cipher = cipher(mode);
+            for (int size : SIZES) {
+                byte[] plaintext = plaintext(size);
+                byte[] encrypted = encryptFile(cipher, plaintext);
+                assertEquals(cipher.encryptedSize(size), encrypted.length, mode + " size " + size);
+                assertArrayEquals(plaintext, decryptFile(cipher, encrypted), mode + " size " + size);
+            }
+        }
+    }
+
+    @Test
+    public void testChannelRoundTrip() throws Exception {
+        for (Aes256Engine.Mode mode : MODES) {
+            Aes256FileCipher cipher = cipher(mode);
+            for (int size : SIZES) {
+                byte[] plaintext = plaintext(size);
+                byte[] encrypted = encryptChannels(cipher, plaintext);
+                assertEquals(cipher.encryptedSize(size), encrypted.length, mode + " size " + size);
+                assertArrayEquals(plaintext, decryptChannels(cipher, encrypted), mode + " size " + size);
+            }
+        }
+    }
+
+    @Test
+    public void testFileAndChannelFormatsInteroperate() throws Exception {
+        for (Aes256Engine.Mode mode : MODES) {
+            Aes256FileCipher cipher = cipher(mode);
+            byte[] plaintext = plaintext(3 * CHUNK_SIZE + 7);
+            assertArrayEquals(plaintext, decryptFile(cipher, encryptChannels(cipher, plaintext)));
+            assertArrayEquals(plaintext, decryptChannels(cipher, encryptFile(cipher, plaintext)));
+        }
+    }
+
+    @Test
+    public void testFlippedByteIsRejected() throws Exception {
+        for (Aes256Engine.Mode mode : MODES) {
+            Aes256FileCipher cipher = cipher(mode);
+            byte[] encrypted = encryptFile(cipher, plaintext(2 * CHUNK_SIZE + 100));
+            int[] positions = {
+                    0,                                                   // magic
+                    Aes256FileCipher.HEADER_LENGTH - 1,                  // nonce
+                    Aes256FileCipher.HEADER_LENGTH + 10,                 // first chunk's ciphertext
+                    Aes256FileCipher.HEADER_LENGTH + FRAME_LENGTH - 1,   // first chunk's tag
+                    encrypted.length - 1,                                // last chunk's tag
+            };
+            for (int position : positions) {
+                byte[] tampered = encrypted.clone();
+                tampered[position] ^= 1;
+                assertRejected(cipher, tampered, mode + " flipped byte at " + position);
+            }
+        }
+    }
+
+    @Test
+    public void testTruncationAndAppendingAreRejected() throws Exception {
+        for (Aes256Engine.Mode mode : MODES) {
+            Aes256FileCipher cipher = cipher(mode);
+            byte[] encrypted = encryptFile(cipher, plaintext(3 * CHUNK_SIZE + 100));
+            assertRejected(cipher, Arrays.copyOf(encrypted, encrypted.length - 1), mode + " one byte truncated");
+            assertRejected(cipher, Arrays.copyOf(encrypted, encrypted.length - FRAME_LENGTH),
+                    mode + " one frame truncated");
+            assertRejected(cipher, Arrays.copyOf(encrypted, Aes256FileCipher.HEADER_LENGTH + 2 * FRAME_LENGTH),
+                    mode + " truncated at a frame boundary");
+            assertRejected(cipher, Arrays.copyOf(encrypted, encrypted.length + 1), mode + " one byte appended");
+            byte[] appendedFrame = Arrays.copyOf(encrypted, encrypted.length + FRAME_LENGTH);
+            assertRejected(cipher, appendedFrame, mode + " one frame appended");
+        }
+    }
+
+    @Test
+    public void testFailedDecryptionLeavesTargetUntouched() throws Exception {
+        for (Aes256Engine.Mode mode : MODES) {
+            Aes256FileCipher cipher = cipher(mode);
+            byte[] tampered = encryptFile(cipher, plaintext(4 * CHUNK_SIZE));
+            tampered[tampered.length - 1] ^= 1;
+            Path source = Files.write(directory.resolve("tampered"), tampered);
+
+            Path existing = Files.write(directory.resolve("existing"), new byte[] { 1, 2, 3 });
+            try {
+                cipher.decrypt(source, existing);
+                fail(mode + " accepted a tampered file");
+            } catch (GeneralSecurityException e) {
+                // expected
+            }
+            assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(existing));
+
+            Path absent = directory.resolve("absent");
+            try {
+                cipher.decrypt(source, absent);
+                fail(mode + " accepted a tampered file");
+            } catch (GeneralSecurityException e) {
+                // expected
+            }
+            assertFalse(Files.exists(absent));
+            try (var files = Files.list(directory)) {
+                assertFalse(files.anyMatch(file -> file.getFileName().toString().endsWith(".tmp")),
+                        "Temporary file left behind");
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.flower.crypt.keys.engine;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexedTrustManagerTest {
+    static final AtomicLong SERIALS = new AtomicLong(1);
+
+    /** Just enough of a CA to issue the test certificates. */
+    static final class Issued {
+        final X509Certificate certificate;
+        final KeyPair keys;
+
+        Issued(X509Certificate certificate, KeyPair keys) {
+            this.certificate = certificate;
+            this.keys = keys;
+        }
+    }
+
+    static final class CertificateSpec {
+        final String subject;
+        boolean ca;
+        boolean authorityKeyIdentifier = true;
+        @Nullable KeyPurposeId extendedKeyUsage;
+        int keyUsage = -1;
+        final List<GeneralName> alternativeNames = new ArrayList<>();
+
+        CertificateSpec(String subject) {
+            this.subject = subject;
+        }
+
+        CertificateSpec ca() {
+            ca = true;
+            keyUsage = KeyUsage.keyCertSign | KeyUsage.cRLSign;
+            return this;
+        }
+
+        CertificateSpec noAuthorityKeyIdentifier() {
+            authorityKeyIdentifier = false;
+            return this;
+        }
+
+        CertificateSpec extendedKeyUsage(KeyPurposeId purpose) {
+            extendedKeyUsage = purpose;
+            return this;
+        }
+
+        CertificateSpec keyUsage(int keyUsage) {
+            this.keyUsage = keyUsage;
+            return this;
+        }
+
+        CertificateSpec dnsName(String name) {
+            alternativeNames.add(new GeneralName(GeneralName.dNSName, name));
+            return this;
+        }
+
+        CertificateSpec ipAddress(String address) {
+            alternativeNames.add(new GeneralName(GeneralName.iPAddress, address));
+            return this;
+        }
+
+        /** Self-signed if {@code issuer} is {@code null}. */
+        Issued issue(@Nullable Issued issuer) throws Exception {
+            KeyPair keys = keyPair();
+            KeyPair signingKeys = issuer == null ? keys : issuer.keys;
+            String issuerName = issuer == null ? subject : issuer.certificate.getSubjectX500Principal().getName();
+            long now = System.currentTimeMillis();
+            JcaX509ExtensionUtils utils = new JcaX509ExtensionUtils();
+            JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(issuerName),
+                    BigInteger.valueOf(SERIALS.getAndIncrement()), new Date(now - 60_000), new Date(now + 86_400_000L),
+                    new X500Name(subject), keys.getPublic());
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+            builder.addExtension(Extension.subjectKeyIdentifier, false,
+                    utils.createSubjectKeyIdentifier(keys.getPublic()));
+            if (authorityKeyIdentifier) {
+                builder.addExtension(Extension.authorityKeyIdentifier, false,
+                        utils.createAuthorityKeyIdentifier(signingKeys.getPublic()));
+            }
+            if (keyUsage >= 0) {
+                builder.addExtension(Extension.keyUsage, true, new KeyUsage(keyUsage));
+            }
+            if (extendedKeyUsage != null) {
+                builder.addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(extendedKeyUsage));
+            }
+            if (!alternativeNames.isEmpty()) {
+                builder.addExtension(Extension.subjectAlternativeName, false,
+                        new GeneralNames(alternativeNames.toArray(new GeneralName[0])));
+            }
+            X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                    builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(signingKeys.getPrivate())));
+            return new Issued(certificate, keys);
+        }
+    }
+
+    static KeyPair keyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    static IndexedTrustManager trusting(Issued... anchors) {
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (Issued anchor : anchors) {
+            certificates.add(anchor.certificate);
+        }
+        return new IndexedTrustManager(CertificateIndex.of(certificates));
+    }
+
+    static X509Certificate[] chain(Issued... certificates) {
+        X509Certificate[] chain = new X509Certificate[certificates.length];
+        for (int i = 0; i < certificates.length; i++) {
+            chain[i] = certificates[i].certificate;
+        }
+        return chain;
+    }
+
+    @Test
+    public void testLeafIssuedByAnchor() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued leaf = new CertificateSpec("CN=leaf").issue(root);
+
+        trusting(root).checkTrusted(chain(leaf));
+        trusting(root).checkTrusted(chain(leaf, root));
+    }
+
+    @Test
+    public void testLeafThatIsAnAnchor() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued leaf = new CertificateSpec("CN=leaf").issue(root);
+
+        trusting(leaf).checkTrusted(chain(leaf));
+    }
+
+    @Test
+    public void testIntermediateSentByPeer() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued intermediate = new CertificateSpec("CN=Intermediate").ca().issue(root);
+        Issued leaf = new CertificateSpec("CN=leaf").issue(intermediate);
+
+        trusting(root).checkTrusted(chain(leaf, intermediate));
+        trusting(root).checkTrusted(chain(leaf, intermediate, root));
+        assertThrows(CertificateException.class, () -> trusting(root).checkTrusted(chain(leaf)));
+    }
+
+    @Test
+    public void testUnknownIssuer() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued other = new CertificateSpec("CN=Other").ca().issue(null);
+        Issued intermediate = new CertificateSpec("CN=Intermediate").ca().issue(root);
+        Issued leaf = new CertificateSpec("CN=leaf").issue(intermediate);
+
+        assertThrows(CertificateException.class, () -> trusting(other).checkTrusted(chain(leaf, intermediate, root)));
+        assertThrows(CertificateException.class, () -> trusting(other).checkTrusted(new X509Certificate[0]));
+    }
+
+    @Test
+    public void testRekeyedCaWithSameName() throws Exception {
+        Issued oldRoot = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued newRoot = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued oldLeaf = new CertificateSpec("CN=old").issue(oldRoot);
+        Issued newLeaf = new CertificateSpec("CN=new").issue(newRoot);
+        // Without an authority key identifier only the signature tells the two roots apart.
+        Issued newLeafWithoutKeyId = new CertificateSpec("CN=new").noAuthorityKeyIdentifier().issue(newRoot);
+
+        IndexedTrustManager both = trusting(oldRoot, newRoot);
+        both.checkTrusted(chain(oldLeaf));
+        both.checkTrusted(chain(newLeaf));
+        both.checkTrusted(chain(newLeafWithoutKeyId));
+
+        IndexedTrustManager oldOnly = trusting(oldRoot);
+        oldOnly.checkTrusted(chain(oldLeaf));
+        assertThrows(CertificateException.class, () -> oldOnly.checkTrusted(chain(newLeaf)));
+        assertThrows(CertificateException.class, () -> oldOnly.checkTrusted(chain(newLeafWithoutKeyId)));
+    }
+
+    @Test
+    public void testExtendedKeyUsage() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued server = new CertificateSpec("CN=server").extendedKeyUsage(KeyPurposeId.id_kp_serverAuth).issue(root);
+        Issued client = new CertificateSpec("CN=client").extendedKeyUsage(KeyPurposeId.id_kp_clientAuth).issue(root);
+        Issued any = new CertificateSpec("CN=any").issue(root);
+        IndexedTrustManager trustManager = trusting(root);
+
+        trustManager.checkServerTrusted(chain(server), "ECDHE_ECDSA");
+        assertThrows(CertificateException.class, () -> trustManager.checkClientTrusted(chain(server), "EC"));
+
+        trustManager.checkClientTrusted(chain(client), "EC");
+        assertThrows(CertificateException.class, () -> trustManager.checkServerTrusted(chain(client), "ECDHE_ECDSA"));
+
+        trustManager.checkServerTrusted(chain(any), "ECDHE_ECDSA");
+        trustManager.checkClientTrusted(chain(any), "EC");
+    }
+
+    @Test
+    public void testKeyUsageForAuthType() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        Issued encipherment = new CertificateSpec("CN=rsa-kx").keyUsage(KeyUsage.keyEncipherment).issue(root);
+        Issued signature = new CertificateSpec("CN=ecdhe").keyUsage(KeyUsage.digitalSignature).issue(root);
+        IndexedTrustManager trustManager = trusting(root);
+
+        trustManager.checkServerTrusted(chain(encipherment), "RSA");
+        assertThrows(CertificateException.class, () -> trustManager.checkServerTrusted(chain(encipherment), "ECDHE_RSA"));
+        assertThrows(CertificateException.class, () -> trustManager.checkClientTrusted(chain(encipherment), "RSA"));
+
+        trustManager.checkServerTrusted(chain(signature), "ECDHE_RSA");
+        trustManager.checkServerTrusted(chain(signature), "UNKNOWN");
+        trustManager.checkClientTrusted(chain(signature), "RSA");
+        assertThrows(CertificateException.class, () -> trustManager.checkServerTrusted(chain(signature), "RSA"));
+    }
+
+    @Test
+    public void testWildcardMatchesOneLabel() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        X509Certificate leaf = new CertificateSpec("CN=leaf").dnsName("*.example.com").dnsName("exact.test")
+                .issue(root).certificate;
+
+        assertTrue(IndexedTrustManager.matchesHost(leaf, "a.example.com"));
+        assertTrue(IndexedTrustManager.matchesHost(leaf, "A.Example.COM."));
+        assertTrue(IndexedTrustManager.matchesHost(leaf, "exact.test"));
+        assertFalse(IndexedTrustManager.matchesHost(leaf, "a.b.example.com"));
+        assertFalse(IndexedTrustManager.matchesHost(leaf, "example.com"));
+        assertFalse(IndexedTrustManager.matchesHost(leaf, "other.test"));
+    }
+
+    @Test
+    public void testIpAddressesCompareByValue() throws Exception {
+        Issued root = new CertificateSpec("CN=Root").ca().issue(null);
+        X509Certificate leaf = new CertificateSpec("CN=leaf").ipAddress("::1").ipAddress("192.0.2.7")
+                .issue(root).certificate;
+
+        assertTrue(IndexedTrustManager.matchesHost(leaf, "::1"));
+        assertTrue(IndexedTrustManager.matchesHost(leaf, "0:0:0:0:0:0:0:1"));
+        assertTrue(IndexedTrustManager.matchesHost(leaf, "[::1]"));
+        assertTrue(IndexedTrustManager.matchesHost(leaf, "192.0.2.7"));
+        assertFalse(IndexedTrustManager.matchesHost(leaf, "::2"));
+        assertFalse(IndexedTrustManager.matchesHost(leaf, "192.0.2.8"));
+    }
+}